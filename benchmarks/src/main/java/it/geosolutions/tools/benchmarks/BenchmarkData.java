@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Fixture helpers shared by the benchmarks.
+ * <p>
+ * Generated data is reproducible (fixed seed) and mildly compressible so the
+ * same fixtures can be used both for the copy and the compress benchmarks.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ */
+public final class BenchmarkData {
+
+	private static final long SEED = 20111222L;
+
+	/**
+	 * do not instantiate
+	 */
+	private BenchmarkData() {
+	}
+
+	/**
+	 * Create a new temporary directory.
+	 *
+	 * @param prefix
+	 *            the directory name prefix
+	 * @return the created directory
+	 * @throws IOException
+	 *             if the directory cannot be created
+	 */
+	public static File createTempDir(final String prefix) throws IOException {
+		final File dir = File.createTempFile(prefix, "");
+		if (!dir.delete() || !dir.mkdirs())
+			throw new IOException("Unable to create temp dir: "
+					+ dir.getAbsolutePath());
+		return dir;
+	}
+
+	/**
+	 * Fill (or create) the passed file with size bytes.
+	 *
+	 * @param file
+	 *            the file to write
+	 * @param size
+	 *            the size in bytes
+	 * @return the written file
+	 * @throws IOException
+	 *             in case something bad happens
+	 */
+	public static File createFile(final File file, final long size)
+			throws IOException {
+		final Random random = new Random(SEED + size);
+		final byte[] alphabet = "GeoSolutions-0123456789\n".getBytes("US-ASCII");
+		final byte[] chunk = new byte[64 * 1024];
+		OutputStream out = null;
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(file));
+			long written = 0;
+			while (written < size) {
+				for (int i = 0; i < chunk.length; i++) {
+					// 3 bytes out of 4 are taken from a small alphabet
+					chunk[i] = (i & 3) == 0 ? (byte) random.nextInt()
+							: alphabet[random.nextInt(alphabet.length)];
+				}
+				final int len = (int) Math.min(chunk.length, size - written);
+				out.write(chunk, 0, len);
+				written += len;
+			}
+		} finally {
+			if (out != null)
+				out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Create a tree of fileCount files of fileSize bytes each, spread over
+	 * sub directories of (at most) 100 files.
+	 *
+	 * @param root
+	 *            the root of the tree
+	 * @param fileCount
+	 *            the number of files to create
+	 * @param fileSize
+	 *            the size of each file
+	 * @return the created files
+	 * @throws IOException
+	 *             in case something bad happens
+	 */
+	public static File[] createTree(final File root, final int fileCount,
+			final long fileSize) throws IOException {
+		final File[] files = new File[fileCount];
+		for (int i = 0; i < fileCount; i++) {
+			final File dir = new File(root, "dir_" + (i / 100));
+			if (!dir.isDirectory() && !dir.mkdirs())
+				throw new IOException("Unable to create dir: "
+						+ dir.getAbsolutePath());
+			files[i] = createFile(new File(dir, "file_" + i + ".dat"),
+					fileSize);
+		}
+		return files;
+	}
+
+	/**
+	 * Create a tree of mixed size files: smallCount files of smallSize bytes
+	 * (see {@link #createTree(File, int, long)}) and largeCount files of
+	 * largeSize bytes in the <code>large</code> sub directory, which follows
+	 * the <code>dir_N</code> ones in name order.
+	 *
+	 * @param root
+	 *            the root of the tree
+	 * @param smallCount
+	 *            the number of small files to create
+	 * @param smallSize
+	 *            the size of each small file
+	 * @param largeCount
+	 *            the number of large files to create
+	 * @param largeSize
+	 *            the size of each large file
+	 * @throws IOException
+	 *             in case something bad happens
+	 */
+	public static void createMixedTree(final File root, final int smallCount,
+			final long smallSize, final int largeCount, final long largeSize)
+			throws IOException {
+		createTree(root, smallCount, smallSize);
+		final File dir = new File(root, "large");
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Unable to create dir: "
+					+ dir.getAbsolutePath());
+		for (int i = 0; i < largeCount; i++) {
+			createFile(new File(dir, "large_" + i + ".dat"), largeSize);
+		}
+	}
+
+	/**
+	 * Delete the passed file or directory without complaining.
+	 *
+	 * @param file
+	 *            the file to delete (can be null)
+	 */
+	public static void deleteQuietly(final File file) {
+		if (file != null)
+			FileUtils.deleteQuietly(file);
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.benchmarks;
+
+import it.geosolutions.tools.compress.file.Compressor;
+import it.geosolutions.tools.compress.file.Extractor;
+import it.geosolutions.tools.io.file.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Extractor} and {@link Compressor} benchmarks.
+ * <p>
+ * The gzip, bz2 and zip fixtures are built once per trial from a generated
+ * tree of fileCount files of fileSize bytes.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompressBenchmark {
+
+	@Param({ "1", "100" })
+	public int fileCount;
+
+	@Param({ "1048576", "16777216" })
+	public long fileSize;
+
+	private File dir;
+
+	private File[] files;
+
+	private File gzip;
+
+	private File bz2;
+
+	private File zip;
+
+	private File output;
+
+	private int invocation = 0;
+
+	@Setup(Level.Trial)
+	public void setUpTrial() throws IOException {
+		dir = BenchmarkData.createTempDir("compress-bench");
+		final File source = new File(dir, "source");
+		files = BenchmarkData.createTree(source, fileCount, fileSize);
+
+		gzip = new File(dir, "fixture.gz");
+		IOUtils.copyStream(new FileInputStream(files[0]),
+				new GZIPOutputStream(new FileOutputStream(gzip)), true, true);
+
+		bz2 = new File(dir, "fixture.bz2");
+		IOUtils.copyStream(new FileInputStream(files[0]),
+				new BZip2CompressorOutputStream(new FileOutputStream(bz2)),
+				true, true);
+
+		zip = Compressor.zip(dir, "fixture", files);
+		if (zip == null)
+			throw new IOException("Unable to build the zip fixture");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownTrial() {
+		BenchmarkData.deleteQuietly(dir);
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpInvocation() {
+		// unZip refuses to write into an existing directory
+		output = new File(dir, "output_" + (invocation++));
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDownInvocation() {
+		BenchmarkData.deleteQuietly(output);
+	}
+
+	@Benchmark
+	public File extractGzip() throws Exception {
+		Extractor.extractGzip(gzip, output);
+		return output;
+	}
+
+	@Benchmark
+	public File extractBz2() throws Exception {
+		Extractor.extractBz2(bz2, output);
+		return output;
+	}
+
+	@Benchmark
+	public File unZip() throws Exception {
+		Extractor.unZip(zip.getAbsolutePath(), output.getAbsolutePath());
+		return output;
+	}
+
+	@Benchmark
+	public File zip() throws Exception {
+		if (!output.mkdirs())
+			throw new IOException("Unable to create: "
+					+ output.getAbsolutePath());
+		return Compressor.zip(output, "bench", files);
+	}
+}
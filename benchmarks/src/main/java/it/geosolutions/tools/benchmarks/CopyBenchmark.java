@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.benchmarks;
+
+import it.geosolutions.tools.io.file.Copy;
+import it.geosolutions.tools.io.file.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single file copy benchmarks for {@link Copy#copyFile(File, File, int)} and
+ * the {@link IOUtils} copy primitives.
+ * <p>
+ * The bufferSize values are the 8k stream default,
+ * {@link it.geosolutions.tools.commons.Conf#getBufferSize()} and
+ * {@link it.geosolutions.tools.commons.Conf#DEFAULT_SIZE}; use
+ * <code>-p fileSize=...</code> to run them on bigger files.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CopyBenchmark {
+
+	@Param({ "1048576", "67108864" })
+	public long fileSize;
+
+	@Param({ "8192", "819200", "10485760" })
+	public int bufferSize;
+
+	private File dir;
+
+	private File source;
+
+	private File destination;
+
+	@Setup
+	public void setUp() throws IOException {
+		dir = BenchmarkData.createTempDir("copy-bench");
+		source = BenchmarkData.createFile(new File(dir, "source.dat"),
+				fileSize);
+		destination = new File(dir, "destination.dat");
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchmarkData.deleteQuietly(dir);
+	}
+
+	@Benchmark
+	public File copyFile() throws IOException {
+		Copy.copyFile(source, destination, bufferSize);
+		return destination;
+	}
+
+	@Benchmark
+	public File copyFileChannel() throws IOException {
+		RandomAccessFile s = null, d = null;
+		try {
+			s = new RandomAccessFile(source, "r");
+			d = new RandomAccessFile(destination, "rw");
+			final FileChannel sourceChannel = s.getChannel();
+			final FileChannel destinationChannel = d.getChannel();
+			IOUtils.copyFileChannel(bufferSize, sourceChannel,
+					destinationChannel);
+		} finally {
+			if (s != null)
+				s.close();
+			if (d != null)
+				d.close();
+		}
+		return destination;
+	}
+
+	@Benchmark
+	public File copyChannel() throws IOException {
+		FileInputStream in = null;
+		FileOutputStream out = null;
+		try {
+			in = new FileInputStream(source);
+			out = new FileOutputStream(destination);
+			IOUtils.copyChannel(bufferSize, in.getChannel(), out.getChannel());
+		} finally {
+			if (in != null)
+				in.close();
+			if (out != null)
+				out.close();
+		}
+		return destination;
+	}
+
+	@Benchmark
+	public File copyStream() throws IOException {
+		IOUtils.copyStream(new FileInputStream(source), new FileOutputStream(
+				destination), bufferSize, true, true);
+		return destination;
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.benchmarks;
+
+import it.geosolutions.tools.io.file.CopyTree;
+
+import java.io.File;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link CopyTree#copy()} benchmark: walks a generated tree and waits for
+ * all the scheduled copies to complete.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CopyTreeBenchmark {
+
+	@Param({ "10", "1000" })
+	public int fileCount;
+
+	@Param({ "4096", "1048576" })
+	public long fileSize;
+
+	@Param({ "1", "4", "16" })
+	public int poolSize;
+
+	private File sourceDir;
+
+	private File destDir;
+
+	private ExecutorService executor;
+
+	@Setup(Level.Trial)
+	public void setUpTrial() throws Exception {
+		sourceDir = BenchmarkData.createTempDir("copytree-bench");
+		BenchmarkData.createTree(sourceDir, fileCount, fileSize);
+		executor = Executors.newFixedThreadPool(poolSize);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownTrial() {
+		executor.shutdownNow();
+		BenchmarkData.deleteQuietly(sourceDir);
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpInvocation() throws Exception {
+		destDir = BenchmarkData.createTempDir("copytree-bench-dest");
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDownInvocation() {
+		BenchmarkData.deleteQuietly(destDir);
+	}
+
+	@Benchmark
+	public int copy() throws Exception {
+		final CompletionService<File> cs = new ExecutorCompletionService<File>(
+				executor);
+		final CopyTree copyTree = new CopyTree(null, cs, sourceDir, destDir);
+		final int scheduled = copyTree.copy();
+		for (int i = 0; i < scheduled; i++) {
+			cs.take().get();
+		}
+		return scheduled;
+	}
+}
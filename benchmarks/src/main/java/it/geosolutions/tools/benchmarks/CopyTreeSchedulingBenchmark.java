@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.benchmarks;
+
+import it.geosolutions.tools.io.file.CopyTree;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Makespan (time to copy the whole tree) of {@link CopyTree} scheduling
+ * policies on a mixed size tree: many small files and a few large ones.
+ * <p>
+ * The directories are walked in name order (the listing order of the file
+ * system is unspecified), so the large files, in the <code>large</code> sub
+ * directory, are collected after the small ones (in the <code>dir_N</code>
+ * sub directories): submitted in walk order they are the tail of the copy.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ * @see CopyTree#setScheduling(CopyTree.Scheduling)
+ * @see CopyTree#setBatching(long, int)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CopyTreeSchedulingBenchmark {
+
+	@Param({ "WALK", "LARGEST_FIRST" })
+	public CopyTree.Scheduling scheduling;
+
+	/**
+	 * the max number of small files of a batch (1 disables batching)
+	 */
+	@Param({ "1", "64" })
+	public int batchFiles;
+
+	@Param({ "4" })
+	public int poolSize;
+
+	@Param({ "2000" })
+	public int smallCount;
+
+	@Param({ "4096" })
+	public long smallSize;
+
+	@Param({ "4" })
+	public int largeCount;
+
+	@Param({ "67108864" })
+	public long largeSize;
+
+	private File sourceDir;
+
+	private File destDir;
+
+	private ExecutorService executor;
+
+	@Setup(Level.Trial)
+	public void setUpTrial() throws Exception {
+		sourceDir = BenchmarkData.createTempDir("copytree-sched-bench");
+		BenchmarkData.createMixedTree(sourceDir, smallCount, smallSize,
+				largeCount, largeSize);
+		executor = Executors.newFixedThreadPool(poolSize);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownTrial() {
+		executor.shutdownNow();
+		BenchmarkData.deleteQuietly(sourceDir);
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpInvocation() throws Exception {
+		destDir = BenchmarkData.createTempDir("copytree-sched-bench-dest");
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDownInvocation() {
+		BenchmarkData.deleteQuietly(destDir);
+	}
+
+	@Benchmark
+	public int copy() throws Exception {
+		final CompletionService<File> cs = new ExecutorCompletionService<File>(
+				executor);
+		final CopyTree copyTree = new CopyTree(null, cs, sourceDir, destDir) {
+			@Override
+			protected File[] filterDirectoryContents(File directory,
+					int depth, File[] files) throws IOException {
+				final File[] sorted = super.filterDirectoryContents(directory,
+						depth, files);
+				Arrays.sort(sorted);
+				return sorted;
+			}
+		};
+		copyTree.setScheduling(scheduling);
+		// the small files are batched
+		copyTree.setBatching(smallSize + 1, batchFiles);
+		final int scheduled = copyTree.copy();
+		for (int i = 0; i < scheduled; i++) {
+			cs.take().get();
+		}
+		return scheduled;
+	}
+}
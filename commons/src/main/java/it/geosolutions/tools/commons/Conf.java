@@ -40,6 +40,8 @@ public class Conf {
 // TODO: check (ask to author Simone)
     // Default size of element for {@link FileChannel} based copy method. 
     public static final int DEFAULT_SIZE = 10 * 1024 * 1024;
+    // Default size of the ranges used by the parallel (chunked) file copy.
+    public static final long DEFAULT_CHUNK_SIZE = 64L * 1024 * 1024;
  // TODO: check (ask to author Simone)    
     public static final long ATOMIC_WAIT = 5000;
 // TODO: check (ask to author Simone)
@@ -48,6 +50,9 @@ public class Conf {
 // TODO: check (ask to author Simone)
      // The default number of attempts is 50
     public final static int DEF_MAX_ATTEMPTS = 50;
+    // The max delay (in seconds) between two attempts to delete the same file:
+    // the delay doubles at each failed attempt starting from DEFAULT_PERIOD.
+    public final static long DEF_MAX_BACKOFF = 5L * 60;
     
     /**
      * Variables used by reader and Extractor classes
@@ -59,6 +64,21 @@ public class Conf {
      */
     private static int bufferSize = (1024*8*100); // default value
     
+    /**
+     * Variables used by the Copy executors
+     */
+    // threads copying concurrently (default: 2 per available processor)
+    private static int copyThreads = Runtime.getRuntime().availableProcessors() * 2;
+    // copies waiting for a free thread before the caller has to run them
+    private static int copyQueueSize = copyThreads * 4;
+    
+    /**
+     * Variables used by the io buffer pools
+     */
+    // max bytes retained by each buffer pool while idle, the buffers in use
+    // are not counted (default 64Mb)
+    private static int bufferPoolSize = 64 * 1024 * 1024;
+    
     static {
         /*
          * Action.tools.bufferSize
@@ -84,6 +104,39 @@ public class Conf {
             if (LOGGER.isInfoEnabled())
                 LOGGER.info(property+": "+timeToWait);   
         }
+        
+        /*
+         * Copy executors
+         */
+        property="tools.copyThreads";
+        try {
+            copyThreads=Math.max(1, Property.getIntProperty(property));
+        }
+        catch (NullPointerException e){
+            if (LOGGER.isInfoEnabled())
+                LOGGER.info(property+": "+copyThreads);   
+        }
+        property="tools.copyQueueSize";
+        try {
+            copyQueueSize=Math.max(1, Property.getIntProperty(property));
+        }
+        catch (NullPointerException e){
+            copyQueueSize=copyThreads * 4;
+            if (LOGGER.isInfoEnabled())
+                LOGGER.info(property+": "+copyQueueSize);   
+        }
+        
+        /*
+         * buffer pools
+         */
+        property="tools.bufferPoolSize";
+        try {
+            bufferPoolSize=Math.max(0, Property.getIntProperty(property));
+        }
+        catch (NullPointerException e){
+            if (LOGGER.isInfoEnabled())
+                LOGGER.info(property+": "+bufferPoolSize);   
+        }
     }
     
     public static final int getBufferSize(){
@@ -93,6 +146,18 @@ public class Conf {
     public static final int getTimeToWait(){
         return timeToWait;
     }
+    
+    public static final int getCopyThreads(){
+        return copyThreads;
+    }
+    
+    public static final int getCopyQueueSize(){
+        return copyQueueSize;
+    }
+    
+    public static final int getBufferPoolSize(){
+        return bufferPoolSize;
+    }
 
 
 }
@@ -23,11 +23,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Default implementation of the interface {@link Progress}
+ * Default implementation of the interface {@link Progress}: it logs the events
+ * (at INFO level, the transfer details at DEBUG level). Messages are built
+ * only if the logger is enabled.
  * 
  * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
  */
-public class DefaultProgress implements Progress<String> {
+public class DefaultProgress implements TransferProgress<String> {
 
 	private final Logger LOGGER;
 
@@ -37,8 +39,7 @@ public class DefaultProgress implements Progress<String> {
 
 	public void onNewTask(String task) {
 		if (LOGGER.isInfoEnabled())
-			LOGGER.info(new StringBuilder(name).append(" [task=").append(task)
-					.append("]").toString());
+			LOGGER.info("{} [task={}]", getName(), task);
 	}
 
 	public DefaultProgress(String name) {
@@ -54,44 +55,73 @@ public class DefaultProgress implements Progress<String> {
 
 	}
 
+	/**
+	 * Use a shared logger: useful when many instances are created (f.e. one
+	 * for each copied file) since a logger is never released.
+	 * 
+	 * @param logger
+	 *            the logger to use
+	 * @see #getName()
+	 */
+	public DefaultProgress(Logger logger) {
+		super();
+		if (logger == null)
+			throw new IllegalArgumentException("Invalid null logger");
+		this.name = null;
+		LOGGER = logger;
+	}
+
+	/**
+	 * @return the name used in the messages (called only if the message is
+	 *         logged: override to build it lazily)
+	 */
+	protected String getName() {
+		return name != null ? name : LOGGER.getName();
+	}
+
 	/**
 	 * {@link Progress#onStart()}
 	 */
 	public void onStart() {
-		if (LOGGER.isInfoEnabled()) {
-			LOGGER.info(new StringBuilder(name).append(" [ start ]").toString());
-		}
+		if (LOGGER.isInfoEnabled())
+			LOGGER.info("{} [ start ]", getName());
 	}
 
 	/**
 	 * {@link Progress#onUpdateProgress(float)}
 	 */
 	public void onUpdateProgress(float percent) {
-		if (LOGGER.isInfoEnabled()) {
-			LOGGER.info(new StringBuilder(name).append(" [old_progress=")
-					.append(progress).append(", new_progress=").append(percent)
-					.append("]").toString());
-		}
+		if (LOGGER.isInfoEnabled())
+			LOGGER.info("{} [old_progress={}, new_progress={}]", new Object[] {
+					getName(), progress, percent });
+		progress = percent;
+	}
+
+	/**
+	 * {@link TransferProgress#onTransferProgress(long, long, double, long)}
+	 */
+	public void onTransferProgress(long bytes, long total,
+			double bytesPerSecond, long eta) {
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("{} [bytes={}/{}, rate={} B/s, eta={} ms]",
+					new Object[] { getName(), bytes, total,
+							(long) bytesPerSecond, eta });
 	}
 
 	/**
 	 * {@link Progress#onCompleted()}
 	 */
 	public void onCompleted() {
-		if (LOGGER.isInfoEnabled()) {
-			LOGGER.info(new StringBuilder(name).append(" [completed=")
-					.append("true").append("]").toString());
-		}
+		if (LOGGER.isInfoEnabled())
+			LOGGER.info("{} [completed=true]", getName());
 	}
 
 	/**
 	 * {@link Progress#onDispose()}
 	 */
 	public void onDispose() {
-		if (LOGGER.isInfoEnabled()) {
-			LOGGER.info(new StringBuilder(name).append("[ dispose ]")
-					.toString());
-		}
+		if (LOGGER.isInfoEnabled())
+			LOGGER.info("{}[ dispose ]", getName());
 	}
 
 	/**
@@ -99,30 +129,25 @@ public class DefaultProgress implements Progress<String> {
 	 */
 	public void onCancel() {
 		if (LOGGER.isInfoEnabled())
-			LOGGER.info(new StringBuilder(name).append(" [ canceled ]")
-					.toString());
+			LOGGER.info("{} [ canceled ]", getName());
 	}
 
 	/**
 	 * {@link Progress#onExceptionOccurred(Throwable)}
 	 */
 	public void onExceptionOccurred(Throwable exception) {
-		if (LOGGER.isInfoEnabled()) {
-			LOGGER.info(new StringBuilder(name).append(" EXCEPTION [message=")
-					.append(exception.getLocalizedMessage()).append("]")
-					.toString(), exception);
-		}
+		if (LOGGER.isInfoEnabled())
+			LOGGER.info(getName() + " EXCEPTION [message="
+					+ exception.getLocalizedMessage() + "]", exception);
 	}
 
 	/**
 	 * {@link Progress#onWarningOccurred(String, String, String)}
 	 */
 	public void onWarningOccurred(String source, String location, String warning) {
-		if (LOGGER.isInfoEnabled()) {
-			LOGGER.info(new StringBuilder(name).append("  [warning=")
-					.append(new Warning(source, location, warning).toString())
-					.append("]").toString());
-		}
+		if (LOGGER.isInfoEnabled())
+			LOGGER.info("{}  [warning={}]", getName(), new Warning(source,
+					location, warning));
 	}
 
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.commons.listener;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Accumulates the progress (bytes and items) reported by many threads and
+ * notifies it to a {@link Progress} as a percentage of the total bytes,
+ * coalescing the updates: at most a given number of events per second and
+ * only when the percentage advanced of a given step.
+ * <p>
+ * The counters are striped by thread, so the reporting threads do not contend
+ * on the same memory location, and reporting allocates nothing: most calls
+ * only add to the counters and read the clock.<br>
+ * The total can grow while reporting (f.e. while the items are still
+ * collected): once it is final ({@link #seal()}) the last update (100%) is
+ * always notified.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ * @param <T>
+ *            the serializable type for tasks
+ */
+public final class ProgressAggregator<T extends Serializable> {
+
+	/**
+	 * A striped counter: each thread adds to its own padded cell.
+	 */
+	private static final class Counter {
+		/**
+		 * the distance (in longs) between two cells, to keep them on
+		 * different cache lines
+		 */
+		private static final int PAD = 8;
+
+		private final AtomicLongArray cells;
+
+		private final int mask;
+
+		Counter() {
+			int stripes = 1;
+			while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+				stripes <<= 1;
+			}
+			cells = new AtomicLongArray(stripes * PAD);
+			mask = stripes - 1;
+		}
+
+		void add(long value) {
+			int h = (int) Thread.currentThread().getId();
+			h ^= (h >>> 16);
+			cells.addAndGet((h & mask) * PAD, value);
+		}
+
+		long sum() {
+			long sum = 0;
+			for (int i = 0; i < cells.length(); i += PAD) {
+				sum += cells.get(i);
+			}
+			return sum;
+		}
+
+		void reset() {
+			for (int i = 0; i < cells.length(); i += PAD) {
+				cells.set(i, 0);
+			}
+		}
+	}
+
+	private final Progress<T> target;
+
+	private volatile long interval;
+
+	private volatile float step;
+
+	private final Counter bytes = new Counter();
+
+	private final Counter items = new Counter();
+
+	private final AtomicLong total = new AtomicLong();
+
+	/**
+	 * the time of the next allowed notification
+	 */
+	private final AtomicLong next = new AtomicLong(System.nanoTime());
+
+	/**
+	 * the last notified percentage (written by the notifying thread)
+	 */
+	private volatile float last = 0;
+
+	private volatile boolean sealed = false;
+
+	private final AtomicBoolean completed = new AtomicBoolean();
+
+	/**
+	 * @param target
+	 *            the progress to notify
+	 * @param maxEventsPerSecond
+	 *            the max number of notifications per second
+	 * @param step
+	 *            the min advance (percentage) between two notifications
+	 */
+	public ProgressAggregator(Progress<T> target, int maxEventsPerSecond,
+			float step) {
+		if (target == null)
+			throw new IllegalArgumentException("Invalid null target");
+		this.target = target;
+		setLimits(maxEventsPerSecond, step);
+	}
+
+	/**
+	 * Change the limits of the notifications (can be called while
+	 * reporting).
+	 *
+	 * @param maxEventsPerSecond
+	 *            the max number of notifications per second
+	 * @param step
+	 *            the min advance (percentage) between two notifications
+	 */
+	public void setLimits(int maxEventsPerSecond, float step) {
+		if (maxEventsPerSecond < 1 || step < 0)
+			throw new IllegalArgumentException("Illegal rate or step");
+		this.interval = TimeUnit.SECONDS.toNanos(1) / maxEventsPerSecond;
+		this.step = step;
+	}
+
+	/**
+	 * @param bytes
+	 *            bytes to add to the total
+	 */
+	public void addTotal(long bytes) {
+		total.addAndGet(bytes);
+	}
+
+	/**
+	 * @return the total bytes
+	 */
+	public long getTotal() {
+		return total.get();
+	}
+
+	/**
+	 * The total is final: notify the completion as soon as all the bytes are
+	 * reported.
+	 */
+	public void seal() {
+		sealed = true;
+		update();
+	}
+
+	/**
+	 * @return the reported bytes
+	 */
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	/**
+	 * @return the reported items
+	 */
+	public long getItems() {
+		return items.sum();
+	}
+
+	/**
+	 * @return the reported percentage of the total (0 if the total is 0)
+	 */
+	public float getPercent() {
+		final long t = total.get();
+		if (t <= 0)
+			return sealed ? 100 : 0;
+		return Math.min(100, bytes.sum() * 100f / t);
+	}
+
+	/**
+	 * Report progress.
+	 *
+	 * @param bytes
+	 *            the processed bytes
+	 * @param items
+	 *            the processed items
+	 */
+	public void add(long bytes, long items) {
+		if (bytes != 0)
+			this.bytes.add(bytes);
+		if (items != 0)
+			this.items.add(items);
+		update();
+	}
+
+	private void update() {
+		if (sealed && bytes.sum() >= total.get()) {
+			// the last one is always notified (once)
+			if (completed.compareAndSet(false, true)) {
+				last = 100;
+				target.onUpdateProgress(100);
+			}
+			return;
+		}
+		final long now = System.nanoTime();
+		final long time = next.get();
+		if (now - time < 0)
+			return;
+		final float percent = getPercent();
+		if (percent - last < step)
+			return;
+		if (!next.compareAndSet(time, now + interval))
+			return;
+		last = percent;
+		target.onUpdateProgress(percent);
+	}
+
+	/**
+	 * Notify the current percentage (regardless of the limits).
+	 */
+	public void flush() {
+		final float percent = getPercent();
+		last = percent;
+		next.set(System.nanoTime() + interval);
+		target.onUpdateProgress(percent);
+	}
+
+	/**
+	 * Clear the counters and the total.
+	 */
+	public void reset() {
+		bytes.reset();
+		items.reset();
+		total.set(0);
+		last = 0;
+		sealed = false;
+		completed.set(false);
+	}
+}
@@ -19,13 +19,29 @@
 package it.geosolutions.tools.commons.listener;
 
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Thread-safe implementation of list of Progress Listener can be used to propagate events to all
  * the registered list of progress listeners
+ * <p>
+ * The listeners are kept in a copy on write list: notifying them takes no lock, so the threads
+ * reporting their progress do not wait for each other.<br>
+ * If an {@link Executor} is passed the listeners are notified asynchronously by a single task at
+ * a time (so they are called in order and never concurrently) and the reporting threads never
+ * run the listeners: a progress update following another one which is not yet dispatched is
+ * coalesced into it (the order of the events is kept). Exceptions thrown by the listeners are
+ * logged by the asynchronous dispatch.
  * 
  * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
  * 
@@ -36,7 +52,68 @@ import java.util.List;
  */
 public final class ProgressList<T extends Serializable> implements Progress<T> {
 
-	private final List<Progress<T>> listeners = new LinkedList<Progress<T>>();
+	private final static Logger LOGGER = LoggerFactory.getLogger(ProgressList.class);
+
+	private static final int NEW_TASK = 0, START = 1, PROGRESS = 2, COMPLETED = 3, DISPOSE = 4,
+			CANCEL = 5, WARNING = 6, EXCEPTION = 7;
+
+	private static final class Event {
+		final int type;
+
+		final Object arg0, arg1, arg2;
+
+		/**
+		 * the progress (guarded by the events queue: updated while queued)
+		 */
+		float percent;
+
+		Event(int type, Object arg0, Object arg1, Object arg2) {
+			this.type = type;
+			this.arg0 = arg0;
+			this.arg1 = arg1;
+			this.arg2 = arg2;
+		}
+	}
+
+	private final List<Progress<T>> listeners = new CopyOnWriteArrayList<Progress<T>>();
+
+	/**
+	 * the executor of the asynchronous dispatch (null for the synchronous one)
+	 */
+	private final Executor executor;
+
+	/**
+	 * the events not yet dispatched (guarded by itself)
+	 */
+	private final Deque<Event> events;
+
+	/**
+	 * true while the dispatch task is scheduled or running
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	private final Runnable dispatcher = new Runnable() {
+		public void run() {
+			dispatch();
+		}
+	};
+
+	/**
+	 * Listeners notified by the reporting thread.
+	 */
+	public ProgressList() {
+		this(null);
+	}
+
+	/**
+	 * @param executor
+	 *            the executor notifying the listeners or null to notify them from the reporting
+	 *            thread
+	 */
+	public ProgressList(Executor executor) {
+		this.executor = executor;
+		this.events = executor != null ? new ArrayDeque<Event>() : null;
+	}
 
 	/**
 	 * 
@@ -44,35 +121,178 @@ public final class ProgressList<T extends Serializable> implements Progress<T> {
 	 *            the listener to add
 	 * @return as specified {@link Collection#add(Object)}
 	 */
-	public synchronized boolean addListener(Progress<T> listener) {
+	public boolean addListener(Progress<T> listener) {
 		return listeners.add(listener);
 	}
 
-	public synchronized void onNewTask(T task) {
+	/**
+	 * 
+	 * @param listener
+	 *            the listener to remove
+	 * @return as specified {@link Collection#remove(Object)}
+	 */
+	public boolean removeListener(Progress<T> listener) {
+		return listeners.remove(listener);
+	}
+
+	/**
+	 * @return true if the listeners are notified asynchronously
+	 */
+	public boolean isAsynchronous() {
+		return executor != null;
+	}
+
+	private void post(Event event) {
+		synchronized (events) {
+			events.add(event);
+		}
+		schedule();
+	}
+
+	private void postProgress(float percent) {
+		synchronized (events) {
+			final Event last = events.peekLast();
+			if (last != null && last.type == PROGRESS) {
+				// coalesce with the queued update
+				last.percent = percent;
+				return;
+			}
+			final Event event = new Event(PROGRESS, null, null, null);
+			event.percent = percent;
+			events.add(event);
+		}
+		schedule();
+	}
+
+	private Event poll() {
+		synchronized (events) {
+			return events.poll();
+		}
+	}
+
+	private boolean isEmpty() {
+		synchronized (events) {
+			return events.isEmpty();
+		}
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(dispatcher);
+			} catch (RejectedExecutionException e) {
+				// f.e. the executor is shut down: notify from this thread
+				dispatch();
+			}
+		}
+	}
+
+	private void dispatch() {
+		boolean failed = true;
+		try {
+			do {
+				Event event;
+				while ((event = poll()) != null) {
+					// a polled event is no more updated
+					for (Progress<T> p : listeners) {
+						try {
+							notify(p, event, event.percent);
+						} catch (RuntimeException e) {
+							if (LOGGER.isErrorEnabled())
+								LOGGER.error("Unable to notify the listener " + p + ": "
+										+ e.getLocalizedMessage(), e);
+						}
+					}
+				}
+				scheduled.set(false);
+				// events posted while releasing
+			} while (!isEmpty() && scheduled.compareAndSet(false, true));
+			failed = false;
+		} finally {
+			if (failed) {
+				// f.e. an Error thrown by a listener
+				scheduled.set(false);
+				if (!isEmpty())
+					schedule();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void notify(Progress<T> p, Event event, float percent) {
+		switch (event.type) {
+		case NEW_TASK:
+			p.onNewTask((T) event.arg0);
+			break;
+		case START:
+			p.onStart();
+			break;
+		case PROGRESS:
+			p.onUpdateProgress(percent);
+			break;
+		case COMPLETED:
+			p.onCompleted();
+			break;
+		case DISPOSE:
+			p.onDispose();
+			break;
+		case CANCEL:
+			p.onCancel();
+			break;
+		case WARNING:
+			p.onWarningOccurred((String) event.arg0, (String) event.arg1, (String) event.arg2);
+			break;
+		case EXCEPTION:
+			p.onExceptionOccurred((Throwable) event.arg0);
+			break;
+		}
+	}
+
+	public void onNewTask(T task) {
+		if (executor != null) {
+			post(new Event(NEW_TASK, task, null, null));
+			return;
+		}
 		for (Progress<T> p : listeners) {
 			p.onNewTask(task);
 		}
 	}
 
-	public synchronized void onStart() {
+	public void onStart() {
+		if (executor != null) {
+			post(new Event(START, null, null, null));
+			return;
+		}
 		for (Progress<T> p : listeners) {
 			p.onStart();
 		}
 	}
 
-	public synchronized void onUpdateProgress(float percent) {
+	public void onUpdateProgress(float percent) {
+		if (executor != null) {
+			postProgress(percent);
+			return;
+		}
 		for (Progress<T> p : listeners) {
 			p.onUpdateProgress(percent);
 		}
 	}
 
-	public synchronized void onCompleted() {
+	public void onCompleted() {
+		if (executor != null) {
+			post(new Event(COMPLETED, null, null, null));
+			return;
+		}
 		for (Progress<T> p : listeners) {
 			p.onCompleted();
 		}
 	}
 
-	public synchronized void onDispose() {
+	public void onDispose() {
+		if (executor != null) {
+			post(new Event(DISPOSE, null, null, null));
+			return;
+		}
 		for (Progress<T> p : listeners) {
 			p.onDispose();
 		}
@@ -86,21 +306,33 @@ public final class ProgressList<T extends Serializable> implements Progress<T> {
 	// return res;
 	// }
 
-	public synchronized void onCancel() {
+	public void onCancel() {
+		if (executor != null) {
+			post(new Event(CANCEL, null, null, null));
+			return;
+		}
 		for (Progress<T> p : listeners) {
 			p.onCancel();
 		}
 	}
 
-	public synchronized void onWarningOccurred(String source, String location,
+	public void onWarningOccurred(String source, String location,
 			String warning) {
+		if (executor != null) {
+			post(new Event(WARNING, source, location, warning));
+			return;
+		}
 		for (Progress<T> p : listeners) {
 			p.onWarningOccurred(source, location, warning);
 		}
 
 	}
 
-	public synchronized void onExceptionOccurred(Throwable exception) {
+	public void onExceptionOccurred(Throwable exception) {
+		if (executor != null) {
+			post(new Event(EXCEPTION, exception, null, null));
+			return;
+		}
 		for (Progress<T> p : listeners) {
 			p.onExceptionOccurred(exception);
 		}
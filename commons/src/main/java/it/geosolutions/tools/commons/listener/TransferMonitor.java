@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.commons.listener;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the bytes moved by a transfer loop and reports them to a
+ * {@link Progress} every given number of bytes (the granularity): if the
+ * listener is a {@link TransferProgress} the bytes, the throughput and the
+ * estimated remaining time are notified. The percentage is notified with
+ * {@link Progress#onUpdateProgress(float)} only when it reaches a new whole
+ * percent, so a big transfer notifies (and logs) it at most 101 times.
+ * <p>
+ * A monitor is fed by the single thread running the transfer; the getters can
+ * be called by other threads, f.e. by a watchdog looking for stalled
+ * transfers (see {@link #getIdleTime()}).
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ * @param <T>
+ *            the serializable type for tasks
+ */
+public final class TransferMonitor<T extends Serializable> {
+
+	/**
+	 * the weight of the last measure in the throughput estimate
+	 */
+	private static final double ALPHA = 0.3;
+
+	private final Progress<T> listener;
+
+	private final TransferProgress<T> transfer;
+
+	private final long granularity;
+
+	private volatile long total = 0;
+
+	private volatile long bytes = 0;
+
+	/**
+	 * the time of the last transferred bytes
+	 */
+	private volatile long lastTime = System.nanoTime();
+
+	/**
+	 * the estimated throughput (bytes per second)
+	 */
+	private volatile double rate = 0;
+
+	private long next = 0;
+
+	private long reportedBytes = 0;
+
+	private long reportedTime = lastTime;
+
+	/**
+	 * the last notified whole percent
+	 */
+	private int step = -1;
+
+	/**
+	 * @param listener
+	 *            the progress to notify
+	 * @param granularity
+	 *            the bytes between two notifications
+	 */
+	@SuppressWarnings("unchecked")
+	public TransferMonitor(Progress<T> listener, long granularity) {
+		if (listener == null)
+			throw new IllegalArgumentException("Invalid null listener");
+		if (granularity <= 0)
+			throw new IllegalArgumentException("Illegal granularity: "
+					+ granularity);
+		this.listener = listener;
+		this.transfer = listener instanceof TransferProgress ? (TransferProgress<T>) listener
+				: null;
+		this.granularity = granularity;
+	}
+
+	/**
+	 * Called by the transfer once the size is known.
+	 *
+	 * @param total
+	 *            the bytes to transfer
+	 * @param offset
+	 *            the bytes already transferred (f.e. by a resumed transfer)
+	 */
+	public void start(long total, long offset) {
+		this.total = total;
+		this.bytes = offset;
+		this.rate = 0;
+		this.lastTime = System.nanoTime();
+		this.reportedBytes = offset;
+		this.reportedTime = lastTime;
+		this.next = offset + granularity;
+		this.step = -1;
+		notify(offset, -1);
+	}
+
+	/**
+	 * Called by the transfer loop: cheap unless a notification is due.
+	 *
+	 * @param transferred
+	 *            the bytes transferred by the last operation
+	 */
+	public void transferred(long transferred) {
+		final long b = bytes + transferred;
+		bytes = b;
+		final long now = System.nanoTime();
+		lastTime = now;
+		if (b >= next) {
+			next = b + granularity;
+			report(b, now);
+		}
+	}
+
+	/**
+	 * Called by the transfer on success: the last progress is notified (if
+	 * not yet notified).
+	 */
+	public void completed() {
+		final long b = bytes;
+		if (b != reportedBytes)
+			report(b, System.nanoTime());
+	}
+
+	private void report(long b, long now) {
+		final long elapsed = now - reportedTime;
+		if (elapsed > 0) {
+			final double last = (b - reportedBytes)
+					* (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+			rate = rate == 0 ? last : ALPHA * last + (1 - ALPHA) * rate;
+		}
+		reportedBytes = b;
+		reportedTime = now;
+		notify(b, getEta());
+	}
+
+	private void notify(long b, long eta) {
+		final long t = total;
+		final float percent = t > 0 ? Math.min(100, b * 100f / t) : 100;
+		if ((int) percent > step) {
+			step = (int) percent;
+			listener.onUpdateProgress(percent);
+		}
+		if (transfer != null)
+			transfer.onTransferProgress(b, t, rate, eta);
+	}
+
+	/**
+	 * @return the transferred bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the bytes to transfer
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return the estimated throughput in bytes per second (0 if unknown)
+	 */
+	public double getBytesPerSecond() {
+		return rate;
+	}
+
+	/**
+	 * @return the estimated remaining time in milliseconds (-1 if unknown)
+	 */
+	public long getEta() {
+		final double r = rate;
+		if (r <= 0)
+			return -1;
+		return (long) (Math.max(0, total - bytes) * 1000 / r);
+	}
+
+	/**
+	 * @return the milliseconds elapsed since the last transferred bytes: a
+	 *         growing value means a stalled transfer
+	 */
+	public long getIdleTime() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastTime);
+	}
+}
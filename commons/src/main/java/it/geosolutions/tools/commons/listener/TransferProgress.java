@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.commons.listener;
+
+import java.io.Serializable;
+
+/**
+ * A {@link Progress} of a data transfer which is also notified of the
+ * transferred bytes, of the throughput and of the estimated remaining time.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ * @param <T>
+ *            the serializable type for tasks
+ *
+ * @see TransferMonitor
+ */
+public interface TransferProgress<T extends Serializable> extends Progress<T> {
+
+	/**
+	 * Notifies this listener of the progress of the transfer (together with
+	 * {@link #onUpdateProgress(float)}).
+	 *
+	 * @param bytes
+	 *            the transferred bytes
+	 * @param total
+	 *            the bytes to transfer
+	 * @param bytesPerSecond
+	 *            the estimated (recent) throughput
+	 * @param eta
+	 *            the estimated remaining time in milliseconds (-1 if unknown)
+	 */
+	void onTransferProgress(long bytes, long total, double bytesPerSecond,
+			long eta);
+}
@@ -0,0 +1,104 @@
+package it.geosolutions.tools.commons.listener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ */
+public class ProgressAggregatorTest extends TestCase {
+
+    /**
+     * records the notified percentages
+     */
+    private static class Recorder extends DefaultProgress {
+        final List<Float> updates = Collections.synchronizedList(new ArrayList<Float>());
+
+        @Override
+        public void onUpdateProgress(float percent) {
+            updates.add(percent);
+        }
+    }
+
+    @Test
+    public void testStep() throws Exception {
+        final Recorder recorder = new Recorder();
+        // no rate limit (in practice), 10% steps
+        final ProgressAggregator<String> aggregator = new ProgressAggregator<String>(recorder,
+                Integer.MAX_VALUE, 10f);
+        aggregator.addTotal(1000);
+        for (int i = 0; i < 1000; i++) {
+            aggregator.add(1, 1);
+        }
+        assertEquals(1000, aggregator.getBytes());
+        assertEquals(1000, aggregator.getItems());
+        assertEquals(100f, aggregator.getPercent());
+        assertTrue(recorder.updates.size() <= 10);
+
+        // the last one is notified once sealed
+        recorder.updates.clear();
+        aggregator.seal();
+        aggregator.add(0, 0);
+        assertEquals(Collections.singletonList(100f), recorder.updates);
+    }
+
+    @Test
+    public void testRate() throws Exception {
+        final Recorder recorder = new Recorder();
+        // one event per second
+        final ProgressAggregator<String> aggregator = new ProgressAggregator<String>(recorder,
+                1, 0f);
+        aggregator.addTotal(100);
+        for (int i = 0; i < 99; i++) {
+            aggregator.add(1, 1);
+        }
+        assertTrue(recorder.updates.size() <= 1);
+        aggregator.flush();
+        assertEquals(99f, recorder.updates.get(recorder.updates.size() - 1));
+        aggregator.seal();
+        aggregator.add(1, 1);
+        assertEquals(100f, recorder.updates.get(recorder.updates.size() - 1));
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final int threads = 4;
+        final int adds = 10000;
+        final Recorder recorder = new Recorder();
+        final ProgressAggregator<String> aggregator = new ProgressAggregator<String>(recorder,
+                100, 1f);
+        aggregator.addTotal(threads * adds * 10L);
+        aggregator.seal();
+        final ExecutorService es = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch done = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                es.execute(new Runnable() {
+                    public void run() {
+                        for (int i = 0; i < adds; i++) {
+                            aggregator.add(10, 1);
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+        } finally {
+            es.shutdownNow();
+        }
+        assertEquals(threads * adds, aggregator.getItems());
+        assertEquals(threads * adds * 10L, aggregator.getBytes());
+        // the completion is notified exactly once
+        assertEquals(1, Collections.frequency(recorder.updates, 100f));
+        assertTrue(recorder.updates.size() <= 101);
+    }
+}
@@ -0,0 +1,165 @@
+package it.geosolutions.tools.commons.listener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ */
+public class ProgressListTest extends TestCase {
+
+    /**
+     * records the received events
+     */
+    private static class Recorder extends DefaultProgress {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        final CountDownLatch completed = new CountDownLatch(1);
+
+        @Override
+        public void onStart() {
+            events.add("start");
+        }
+
+        @Override
+        public void onUpdateProgress(float percent) {
+            events.add(Float.toString(percent));
+        }
+
+        @Override
+        public void onCompleted() {
+            events.add("completed");
+            completed.countDown();
+        }
+    }
+
+    @Test
+    public void testSynchronous() throws Exception {
+        final ProgressList<String> list = new ProgressList<String>();
+        final Recorder recorder = new Recorder();
+        assertTrue(list.addListener(recorder));
+        assertFalse(list.isAsynchronous());
+        list.onStart();
+        list.onUpdateProgress(50);
+        list.onCompleted();
+        assertEquals("[start, 50.0, completed]", recorder.events.toString());
+        assertTrue(list.removeListener(recorder));
+        list.onStart();
+        assertEquals(3, recorder.events.size());
+    }
+
+    @Test
+    public void testAsynchronous() throws Exception {
+        final ExecutorService es = Executors.newSingleThreadExecutor();
+        try {
+            final ProgressList<String> list = new ProgressList<String>(es);
+            final CountDownLatch slow = new CountDownLatch(1);
+            final Recorder recorder = new Recorder() {
+                @Override
+                public void onStart() {
+                    super.onStart();
+                    try {
+                        // a slow listener
+                        slow.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            list.addListener(recorder);
+            list.onStart();
+            // the reporting thread is not blocked by the listener
+            for (int i = 0; i <= 1000; i++) {
+                list.onUpdateProgress(i / 10f);
+            }
+            list.onCompleted();
+            slow.countDown();
+            assertTrue(recorder.completed.await(10, TimeUnit.SECONDS));
+
+            // the updates are coalesced in the last one
+            assertEquals("[start, 100.0, completed]", recorder.events.toString());
+        } finally {
+            es.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsynchronousOrder() throws Exception {
+        final ExecutorService es = Executors.newSingleThreadExecutor();
+        try {
+            final ProgressList<String> list = new ProgressList<String>(es);
+            final CountDownLatch slow = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(1);
+            final Recorder recorder = new Recorder() {
+                @Override
+                public void onStart() {
+                    super.onStart();
+                    try {
+                        slow.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                @Override
+                public void onCancel() {
+                    done.countDown();
+                }
+            };
+            list.addListener(recorder);
+            list.onStart();
+            // queued while the listener is busy
+            list.onUpdateProgress(50);
+            list.onCompleted();
+            list.onUpdateProgress(99);
+            list.onUpdateProgress(100);
+            list.onCancel();
+            slow.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+
+            // only the adjacent updates are coalesced
+            assertEquals("[start, 50.0, completed, 100.0]", recorder.events.toString());
+        } finally {
+            es.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsynchronousFailure() throws Exception {
+        final ExecutorService es = Executors.newSingleThreadExecutor();
+        try {
+            final ProgressList<String> list = new ProgressList<String>(es);
+            final Recorder recorder = new Recorder() {
+                @Override
+                public void onStart() {
+                    throw new IllegalStateException("listener bug");
+                }
+
+                @Override
+                public void onUpdateProgress(float percent) {
+                    super.onUpdateProgress(percent);
+                    throw new AssertionError("listener error");
+                }
+            };
+            list.addListener(recorder);
+            // the exception is logged
+            list.onStart();
+            // the error stops the running dispatch only
+            list.onUpdateProgress(50);
+            list.onCompleted();
+            assertTrue(recorder.completed.await(10, TimeUnit.SECONDS));
+            assertEquals("[50.0, completed]", recorder.events.toString());
+        } finally {
+            es.shutdownNow();
+        }
+    }
+}
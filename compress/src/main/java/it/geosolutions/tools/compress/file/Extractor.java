@@ -239,12 +239,7 @@ public final class Extractor {
              * CompressorException("Invalid bz2 file: "+in_file.getAbsolutePath()); }
              */
             zIn = new BZip2CompressorInputStream(bis);
-            byte[] buffer = new byte[Conf.getBufferSize()];
-            int count = 0;
-            do {
-                out.write(buffer, 0, count);
-                count = zIn.read(buffer, 0, buffer.length);
-            } while (count != -1);
+            IOUtils.pumpStream(zIn, out, Conf.getBufferSize());
         } catch (IOException ioe) {
             String msg = "Problem expanding bzip2 " + ioe.getMessage();
             throw new CompressorException(msg + in_file.getAbsolutePath());
@@ -295,11 +290,7 @@ public final class Extractor {
             fis = new FileInputStream(in_file);
             bis = new BufferedInputStream(fis, Conf.getBufferSize());
             zIn = new GZIPInputStream(bis);
-            byte[] buffer = new byte[Conf.getBufferSize()];
-            int count = 0;
-            while ((count = zIn.read(buffer, 0, Conf.getBufferSize())) != -1) {
-                out.write(buffer, 0, count);
-            }
+            IOUtils.pumpStream(zIn, out, Conf.getBufferSize());
         } catch (IOException ioe) {
             String msg = "Problem uncompressing Gzip " + ioe.getMessage();
             throw new CompressorException(msg + in_file.getAbsolutePath());
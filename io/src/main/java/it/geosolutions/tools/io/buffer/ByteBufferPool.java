@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.io.buffer;
+
+import it.geosolutions.tools.commons.Conf;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe pool of {@link ByteBuffer}s.
+ * <p>
+ * Buffers are grouped in power of two size classes (from
+ * {@link #MIN_BUFFER_SIZE}), the biggest one holds buffers of exactly the max
+ * buffer size of the pool (f.e. {@link Conf#DEFAULT_SIZE}). A request is
+ * served with a buffer of the smallest class able to contain it, which is
+ * limited to the requested size. Requests bigger than the max buffer size are
+ * served with a new (not pooled) buffer.
+ * <p>
+ * Released buffers are kept only until the pooled bytes reach the max pool
+ * size, beyond that they are dropped and left to the GC. This is mainly
+ * useful for direct buffers, whose memory is freed only when the GC collects
+ * them, to avoid native memory spikes under concurrent copies. The buffers in
+ * use are not limited: they are bounded by the number of concurrent copies.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * final ByteBuffer buffer = pool.acquire(size);
+ * try {
+ * 	// use the buffer
+ * } finally {
+ * 	pool.release(buffer);
+ * }
+ * </pre>
+ *
+ * A buffer must not be used after it has been released, nor released twice.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ */
+public final class ByteBufferPool {
+
+	/**
+	 * the smallest size class
+	 */
+	public static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+	/**
+	 * the default capacity of the biggest size class
+	 */
+	public static final int DEFAULT_MAX_BUFFER_SIZE = Conf.DEFAULT_SIZE;
+
+	private static final ByteBufferPool DIRECT_POOL = new ByteBufferPool(true,
+			DEFAULT_MAX_BUFFER_SIZE, Conf.getBufferPoolSize());
+
+	private static final ByteBufferPool HEAP_POOL = new ByteBufferPool(false,
+			DEFAULT_MAX_BUFFER_SIZE, Conf.getBufferPoolSize());
+
+	private final boolean direct;
+
+	private final int maxBufferSize;
+
+	private final long maxPoolSize;
+
+	// one queue for each size class
+	private final Queue<ByteBuffer>[] classes;
+
+	private final AtomicLong pooledBytes = new AtomicLong();
+
+	// metrics
+	private final AtomicLong acquired = new AtomicLong();
+
+	private final AtomicLong reused = new AtomicLong();
+
+	private final AtomicLong allocated = new AtomicLong();
+
+	private final AtomicLong allocatedBytes = new AtomicLong();
+
+	private final AtomicLong released = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * @return the shared pool of direct buffers (its size can be configured
+	 *         with the tools.bufferPoolSize system property)
+	 */
+	public static ByteBufferPool getDirectPool() {
+		return DIRECT_POOL;
+	}
+
+	/**
+	 * @return the shared pool of heap buffers, useful to reuse the backing
+	 *         arrays of stream copies (its size can be configured with the
+	 *         tools.bufferPoolSize system property)
+	 */
+	public static ByteBufferPool getHeapPool() {
+		return HEAP_POOL;
+	}
+
+	/**
+	 * @param direct
+	 *            true to pool direct buffers, false for heap buffers
+	 * @param maxBufferSize
+	 *            the biggest pooled buffer (the capacity of the biggest size
+	 *            class)
+	 * @param maxPoolSize
+	 *            the max number of bytes retained by this pool
+	 * @throws IllegalArgumentException
+	 *             if maxBufferSize or maxPoolSize are negative
+	 */
+	public ByteBufferPool(final boolean direct, final int maxBufferSize,
+			final long maxPoolSize) throws IllegalArgumentException {
+		if (maxBufferSize < 0 || maxPoolSize < 0)
+			throw new IllegalArgumentException(
+					"Buffer and pool size cannot be negative");
+		this.direct = direct;
+		this.maxPoolSize = maxPoolSize;
+		this.maxBufferSize = Math.min(Math.max(maxBufferSize,
+				MIN_BUFFER_SIZE), 1 << 30);
+		final int maxClass = sizeClass(this.maxBufferSize);
+		this.classes = newQueues(maxClass + 1);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Queue<ByteBuffer>[] newQueues(final int length) {
+		final Queue<ByteBuffer>[] queues = new Queue[length];
+		for (int i = 0; i < length; i++) {
+			queues[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+		}
+		return queues;
+	}
+
+	/**
+	 * @return the index of the smallest class holding size bytes
+	 */
+	private static int sizeClass(final int size) {
+		if (size <= MIN_BUFFER_SIZE)
+			return 0;
+		// ceil(log2(size)) - log2(MIN_BUFFER_SIZE)
+		return (32 - Integer.numberOfLeadingZeros(size - 1)) - 12;
+	}
+
+	/**
+	 * @return the capacity of the buffers of the passed class
+	 */
+	private int classSize(final int sizeClass) {
+		return Math.min(MIN_BUFFER_SIZE << sizeClass, maxBufferSize);
+	}
+
+	private ByteBuffer allocate(final int capacity) {
+		allocated.incrementAndGet();
+		allocatedBytes.addAndGet(capacity);
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer
+				.allocate(capacity);
+	}
+
+	/**
+	 * Get a buffer from the pool (or a new one if none is available).
+	 *
+	 * @param size
+	 *            the requested size
+	 * @return a buffer with position 0 and limit size, its capacity may be
+	 *         bigger than size.
+	 * @throws IllegalArgumentException
+	 *             if size is not positive
+	 */
+	public ByteBuffer acquire(final int size) throws IllegalArgumentException {
+		if (size <= 0)
+			throw new IllegalArgumentException("Illegal buffer size: " + size);
+		acquired.incrementAndGet();
+		ByteBuffer buffer;
+		if (size > maxBufferSize) {
+			// not pooled
+			buffer = allocate(size);
+		} else {
+			final int sizeClass = sizeClass(size);
+			buffer = classes[sizeClass].poll();
+			if (buffer != null) {
+				reused.incrementAndGet();
+				pooledBytes.addAndGet(-buffer.capacity());
+			} else {
+				buffer = allocate(classSize(sizeClass));
+			}
+		}
+		buffer.clear();
+		buffer.limit(size);
+		return buffer;
+	}
+
+	/**
+	 * Return a buffer to the pool.
+	 *
+	 * @param buffer
+	 *            a buffer obtained from {@link #acquire(int)} (null is
+	 *            ignored)
+	 */
+	public void release(final ByteBuffer buffer) {
+		if (buffer == null)
+			return;
+		released.incrementAndGet();
+		final int capacity = buffer.capacity();
+		if (buffer.isDirect() != direct || capacity > maxBufferSize
+				|| capacity != classSize(sizeClass(capacity))) {
+			// not a pooled buffer
+			dropped.incrementAndGet();
+			return;
+		}
+		if (pooledBytes.addAndGet(capacity) > maxPoolSize) {
+			// pool is full
+			pooledBytes.addAndGet(-capacity);
+			dropped.incrementAndGet();
+			return;
+		}
+		buffer.clear();
+		classes[sizeClass(capacity)].offer(buffer);
+	}
+
+	/**
+	 * Drop all the pooled buffers (they will be freed by the GC).
+	 */
+	public void clear() {
+		for (Queue<ByteBuffer> queue : classes) {
+			ByteBuffer buffer;
+			while ((buffer = queue.poll()) != null) {
+				pooledBytes.addAndGet(-buffer.capacity());
+			}
+		}
+	}
+
+	/**
+	 * @return true if this pool holds direct buffers
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * @return the biggest pooled buffer size
+	 */
+	public int getMaxBufferSize() {
+		return maxBufferSize;
+	}
+
+	/**
+	 * @return the max number of bytes retained by this pool
+	 */
+	public long getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+	/**
+	 * @return the number of bytes currently retained by this pool
+	 */
+	public long getPooledBytes() {
+		return pooledBytes.get();
+	}
+
+	/**
+	 * @return the number of {@link #acquire(int)} calls
+	 */
+	public long getAcquired() {
+		return acquired.get();
+	}
+
+	/**
+	 * @return the number of acquired buffers served from the pool
+	 */
+	public long getReused() {
+		return reused.get();
+	}
+
+	/**
+	 * @return the number of newly allocated buffers
+	 */
+	public long getAllocated() {
+		return allocated.get();
+	}
+
+	/**
+	 * @return the number of newly allocated bytes
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes.get();
+	}
+
+	/**
+	 * @return the number of {@link #release(ByteBuffer)} calls
+	 */
+	public long getReleased() {
+		return released.get();
+	}
+
+	/**
+	 * @return the number of released buffers which were not retained
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	@Override
+	public String toString() {
+		return "ByteBufferPool [direct=" + direct + ", maxBufferSize="
+				+ maxBufferSize + ", maxPoolSize=" + maxPoolSize
+				+ ", pooledBytes=" + pooledBytes + ", acquired=" + acquired
+				+ ", reused=" + reused + ", allocated=" + allocated
+				+ ", allocatedBytes=" + allocatedBytes + ", released="
+				+ released + ", dropped=" + dropped + "]";
+	}
+}
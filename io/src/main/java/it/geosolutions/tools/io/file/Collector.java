@@ -25,6 +25,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.commons.io.DirectoryWalker;
 import org.apache.commons.io.filefilter.FileFilterUtils;
@@ -43,9 +45,10 @@ public class Collector extends DirectoryWalker<File> {
     
     private FileFilter filter = null;
 
+    private final int deep;
+
     public Collector(FileFilter filter) {
-        super(null, -1);
-        this.filter = filter;
+        this(filter, -1);
     }
 
     /**
@@ -57,6 +60,7 @@ public class Collector extends DirectoryWalker<File> {
     public Collector(FileFilter filter, int deep) {
         super(null, deep);
         this.filter = filter;
+        this.deep = deep;
     }
 
     /**
@@ -101,6 +105,96 @@ public class Collector extends DirectoryWalker<File> {
         return null;
     }
 
+    /**
+     * Collect lazily: the tree is navigated while the returned iterator is
+     * consumed, so the memory used does not depend on the number of
+     * collected files and the iteration can be stopped at any time (call
+     * {@link CollectorIterator#close()} to release the open directories).<br>
+     * Unlike {@link #collect(File)} the I/O errors are not swallowed: they are
+     * thrown by the iterator as {@link CollectorIterator.UncheckedIOException}.
+     * 
+     * @param root
+     *            the directory to start from
+     * @return the iterator over the collected files
+     * @throws IOException
+     *             if the root directory cannot be opened
+     * @throws NullPointerException
+     *             if root is null
+     */
+    public CollectorIterator iterator(File root) throws IOException {
+        if (root == null)
+            throw new NullPointerException("The start directory is null");
+        return new CollectorIterator(root, this.filter, deep);
+    }
+
+    /**
+     * Collect in parallel using a {@link ParallelDirectoryWalker}: the
+     * sub directories are scanned concurrently by parallelism threads and the
+     * attributes of each entry are read only once.<br>
+     * The collected files are the same of {@link #collect(File)} but in no
+     * particular order.
+     * 
+     * @param root
+     * @param parallelism
+     *            the number of threads scanning the tree (if less than 2
+     *            {@link #collect(File)} is used)
+     * @return list of file (can be empty) or null if an error occurs
+     */
+    public List<File> collect(File root, int parallelism) {
+        if (parallelism < 2) {
+            return collect(root);
+        }
+        if (root == null) {
+            // if the start directory is null
+            if (LOGGER.isWarnEnabled()){
+                LOGGER.warn("The start directory is null");
+            }
+            return null;
+        }
+        final FileFilter filter = this.filter;
+        // as filterDirectoryContents: navigate all the directories
+        final FileFilter walkFilter = filter == null ? null : FileFilterUtils.or(
+                FileFilterUtils.directoryFileFilter(), FileFilterUtils.asFileFilter(filter));
+        final Queue<File> res = new ConcurrentLinkedQueue<File>();
+        final ParallelDirectoryWalker walker = new ParallelDirectoryWalker(walkFilter, deep);
+        try {
+            walker.walk(root, new ParallelDirectoryWalker.Visitor() {
+                public boolean handleDirectory(File directory, int depth) {
+                    if (filter == null || filter.accept(directory)) {
+                        res.add(directory);
+                    }
+                    return true; // process ALL directory
+                }
+
+                public void handleDirectoryContents(File directory, int depth,
+                        List<File> children) {
+                }
+
+                public void handleFile(File file, int depth) {
+                    if (filter == null || filter.accept(file)) {
+                        res.add(file);
+                    }
+                }
+
+                public boolean isCancelled() {
+                    return false;
+                }
+            }, parallelism);
+        } catch (IOException ioe) {
+            // if an I/O Error occurs
+            if (LOGGER.isWarnEnabled()){
+                LOGGER.warn("I/O Error occurs.",ioe);
+            }
+            return null;
+        }
+        // do not expose the cached attributes of the walked files
+        final List<File> list = new ArrayList<File>(res.size());
+        for (File file : res) {
+            list.add(new File(file.getPath()));
+        }
+        return list;
+    }
+
     @Override
     protected boolean handleDirectory(File directory, int depth, Collection<File> results)
             throws IOException {
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.io.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A lazy {@link Iterator} over the files collected by a {@link Collector}.
+ * <p>
+ * The tree is navigated depth first while the iterator is consumed: only the
+ * {@link DirectoryStream}s of the directories on the current path are kept
+ * open, so memory does not depend on the number of collected files and the
+ * first results are available immediately. The collected files are the same
+ * of {@link Collector#collect(File)}.
+ * <p>
+ * I/O errors (f.e. an unreadable directory) are thrown by {@link #hasNext()}
+ * and {@link #next()} wrapped into an {@link UncheckedIOException}, after
+ * that the iterator is closed.
+ * <p>
+ * Call {@link #close()} to stop the iteration early and release the open
+ * directories; the iterator closes itself when exhausted.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ * @see Collector#iterator(File)
+ */
+public class CollectorIterator implements Iterator<File>, Closeable {
+
+	private final static Logger LOGGER = LoggerFactory
+			.getLogger(CollectorIterator.class);
+
+	/**
+	 * An {@link IOException} thrown through the {@link Iterator} methods.
+	 */
+	public static class UncheckedIOException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public UncheckedIOException(final IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+
+	/**
+	 * an open directory
+	 */
+	private static final class Frame {
+		final DirectoryStream<Path> stream;
+
+		final Iterator<Path> it;
+
+		final int depth;
+
+		Frame(final DirectoryStream<Path> stream, final int depth) {
+			this.stream = stream;
+			this.it = stream.iterator();
+			this.depth = depth;
+		}
+	}
+
+	private final FileFilter filter;
+
+	private final int depthLimit;
+
+	private final Deque<Frame> stack = new ArrayDeque<Frame>();
+
+	/**
+	 * the root, still to be returned
+	 */
+	private File root;
+
+	private File next;
+
+	private boolean closed = false;
+
+	/**
+	 * @param root
+	 *            the directory to start from
+	 * @param filter
+	 *            the filter to apply, null means collect all files
+	 * @param depthLimit
+	 *            controls how deep the hierarchy is navigated to (less than 0
+	 *            means unlimited)
+	 * @throws IOException
+	 *             if the root directory cannot be opened
+	 */
+	CollectorIterator(final File root, final FileFilter filter,
+			final int depthLimit) throws IOException {
+		this.filter = filter;
+		this.depthLimit = depthLimit;
+		this.root = root;
+		push(root.toPath(), 0);
+	}
+
+	/**
+	 * open the directory if its children have to be visited
+	 */
+	private void push(final Path directory, final int depth)
+			throws IOException {
+		if (depthLimit < 0 || depth + 1 <= depthLimit) {
+			stack.push(new Frame(Files.newDirectoryStream(directory), depth));
+		}
+	}
+
+	private boolean accept(final File file) {
+		return filter == null || filter.accept(file);
+	}
+
+	/**
+	 * @return the next collected file or null if the tree is exhausted
+	 */
+	private File advance() throws IOException {
+		if (root != null) {
+			final File file = root;
+			root = null;
+			if (accept(file))
+				return file;
+		}
+		while (!stack.isEmpty()) {
+			final Frame frame = stack.peek();
+			final Path path;
+			try {
+				if (!frame.it.hasNext()) {
+					stack.pop().stream.close();
+					continue;
+				}
+				path = frame.it.next();
+			} catch (DirectoryIteratorException e) {
+				throw e.getCause();
+			}
+			final File file = path.toFile();
+			if (Files.isDirectory(path)) {
+				// directories are always navigated
+				push(path, frame.depth + 1);
+			}
+			if (accept(file))
+				return file;
+		}
+		return null;
+	}
+
+	public boolean hasNext() {
+		if (next != null)
+			return true;
+		if (closed)
+			return false;
+		try {
+			next = advance();
+		} catch (IOException e) {
+			close();
+			throw new UncheckedIOException(e);
+		}
+		if (next == null)
+			close();
+		return next != null;
+	}
+
+	public File next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		final File file = next;
+		next = null;
+		return file;
+	}
+
+	/**
+	 * @throws UnsupportedOperationException
+	 *             always
+	 */
+	public void remove() {
+		throw new UnsupportedOperationException("remove");
+	}
+
+	/**
+	 * Stop the iteration releasing the open directories.
+	 */
+	public void close() {
+		closed = true;
+		while (!stack.isEmpty()) {
+			try {
+				stack.pop().stream.close();
+			} catch (IOException e) {
+				if (LOGGER.isDebugEnabled())
+					LOGGER.debug(e.getLocalizedMessage(), e);
+			}
+		}
+	}
+}
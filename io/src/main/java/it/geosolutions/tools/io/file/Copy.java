@@ -2,22 +2,39 @@ package it.geosolutions.tools.io.file;
 
 import it.geosolutions.tools.commons.Conf;
 import it.geosolutions.tools.commons.check.Objects;
+import it.geosolutions.tools.commons.listener.TransferMonitor;
+import it.geosolutions.tools.io.buffer.ByteBufferPool;
+import it.geosolutions.tools.io.metrics.Metrics;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
@@ -26,6 +43,11 @@ import org.slf4j.LoggerFactory;
 public abstract class Copy {
 	private final static Logger LOGGER = LoggerFactory.getLogger(Copy.class);
 
+	/**
+	 * the suffix (followed by a timestamp) of the temporary files
+	 */
+	private static final String TEMP_SUFFIX = ".copying-";
+
 	/**
 	 * Copy the input file onto the output file using a default buffer size.
 	 * 
@@ -55,6 +77,29 @@ public abstract class Copy {
 	 */
 	public static void copyFile(File sourceFile, File destinationFile, int size)
 			throws IOException {
+		copyFile(sourceFile, destinationFile, size, false);
+	}
+
+	/**
+	 * Copy the input file onto the output file using the specified buffer size
+	 * and locking strategy.
+	 * 
+	 * @param sourceFile
+	 *            the {@link File} to copy from.
+	 * @param destinationFile
+	 *            the {@link File} to copy to.
+	 * @param size
+	 *            buffer size.
+	 * @param regionLock
+	 *            if true lock only the region being written instead of the
+	 *            whole destination file.
+	 * @return the number of copied bytes.
+	 * @throws IOException
+	 *             in case something bad happens.
+	 * @see IOUtils#copyFileChannel(int, FileChannel, FileChannel, boolean)
+	 */
+	public static long copyFile(File sourceFile, File destinationFile,
+			int size, boolean regionLock) throws IOException {
 		Objects.notNull(sourceFile, destinationFile);
 		if (!sourceFile.exists() || !sourceFile.canRead()
 				|| !sourceFile.isFile())
@@ -69,13 +114,21 @@ public abstract class Copy {
 		RandomAccessFile s=null,d=null;
 		FileChannel source = null;
 		FileChannel destination = null;
+		final long start = Metrics.started();
+		long bytes = -1;
 		try {
 		        s= new RandomAccessFile(sourceFile, "r");
 	                source =s.getChannel();
 	                d=new RandomAccessFile(destinationFile, "rw");
 	                destination = d.getChannel();		    
-			IOUtils.copyFileChannel(size, source, destination);
+			bytes = IOUtils.copyFileChannel(size, source, destination,
+					regionLock);
+			return bytes;
 		} finally {
+		    if (bytes < 0)
+		        Metrics.failed(start);
+		    else
+		        Metrics.completed(start, bytes);
                     if (source != null) {
                         try {
                             source.close();
@@ -113,6 +166,640 @@ public abstract class Copy {
 		}
 	}
 
+	/**
+	 * Copy the input file onto the output file computing the digest of the
+	 * copied bytes while they move, so verifying the copy needs no further
+	 * read of the files.
+	 * 
+	 * @param sourceFile
+	 *            the {@link File} to copy from.
+	 * @param destinationFile
+	 *            the {@link File} to copy to.
+	 * @param size
+	 *            buffer size.
+	 * @param algorithm
+	 *            the digest algorithm: "CRC32" or a {@link MessageDigest}
+	 *            one (f.e. "SHA-256")
+	 * @param sidecar
+	 *            if true the digest is also written to a sidecar file (see
+	 *            {@link #getSidecar(File, String)}) using the format of the
+	 *            sha256sum like tools.
+	 * @return the result holding the digest.
+	 * @throws IOException
+	 *             in case something bad happens or the algorithm is not
+	 *             available.
+	 * @see IOUtils#copyFileChannel(int, FileChannel, FileChannel,
+	 *      MessageDigest)
+	 */
+	public static CopyResult copyFile(File sourceFile, File destinationFile,
+			int size, String algorithm, boolean sidecar) throws IOException {
+		return copyFile(sourceFile, destinationFile, size, algorithm, sidecar,
+				false, null, null);
+	}
+
+	/**
+	 * digest computing copy (optionally atomic, throttled and monitored)
+	 */
+	static CopyResult copyFile(final File sourceFile,
+			final File destinationFile, final int size, final String algorithm,
+			final boolean sidecar, final boolean atomic,
+			final CopyThrottle throttle, final TransferMonitor<?> monitor)
+			throws IOException {
+		Objects.notNull(algorithm);
+		checkCopy(sourceFile, destinationFile);
+		final MessageDigest digest = getDigest(algorithm);
+		final long bytes = atomic ? copyAtomic(sourceFile, destinationFile,
+				size, digest, throttle, monitor) : copyChannels(sourceFile,
+				destinationFile, size, digest, throttle, monitor, false);
+		return result(sourceFile, destinationFile, bytes, algorithm,
+				digest.digest(), sidecar);
+	}
+
+	/**
+	 * Copy the input file onto the output file limiting the throughput.
+	 * 
+	 * @param sourceFile
+	 *            the {@link File} to copy from.
+	 * @param destinationFile
+	 *            the {@link File} to copy to.
+	 * @param size
+	 *            buffer size (the bytes of each throttled operation).
+	 * @param throttle
+	 *            the limiter of the copy
+	 * @return the number of copied bytes.
+	 * @throws IOException
+	 *             in case something bad happens.
+	 * @see IOUtils#copyFileChannel(int, FileChannel, FileChannel,
+	 *      MessageDigest, CopyThrottle)
+	 */
+	public static long copyFile(File sourceFile, File destinationFile,
+			int size, CopyThrottle throttle) throws IOException {
+		Objects.notNull(throttle);
+		return copyFile(sourceFile, destinationFile, size, throttle, null);
+	}
+
+	/**
+	 * Copy the input file onto the output file reporting the copied bytes to
+	 * the monitor (every buffer), so the progress of big files is tracked
+	 * while they are copied.
+	 * 
+	 * @param sourceFile
+	 *            the {@link File} to copy from.
+	 * @param destinationFile
+	 *            the {@link File} to copy to.
+	 * @param size
+	 *            buffer size (the bytes of each reported transfer).
+	 * @param monitor
+	 *            the monitor of the copy
+	 * @return the number of copied bytes.
+	 * @throws IOException
+	 *             in case something bad happens.
+	 * @see IOUtils#copyFileChannel(int, FileChannel, FileChannel, boolean,
+	 *      TransferMonitor)
+	 */
+	public static long copyFile(File sourceFile, File destinationFile,
+			int size, TransferMonitor<?> monitor) throws IOException {
+		Objects.notNull(monitor);
+		return copyFile(sourceFile, destinationFile, size, null, monitor);
+	}
+
+	/**
+	 * plain copy (optionally throttled and monitored)
+	 */
+	static long copyFile(final File sourceFile, final File destinationFile,
+			final int size, final CopyThrottle throttle,
+			final TransferMonitor<?> monitor) throws IOException {
+		checkCopy(sourceFile, destinationFile);
+		return copyChannels(sourceFile, destinationFile, size, null, throttle,
+				monitor, false);
+	}
+
+	private static MessageDigest getDigest(final String algorithm)
+			throws IOException {
+		try {
+			return IOUtils.getDigest(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			final IOException ioe = new IOException(
+					"Unsupported digest algorithm: " + algorithm);
+			ioe.initCause(e);
+			throw ioe;
+		}
+	}
+
+	/**
+	 * build the result writing the sidecar file (if needed)
+	 */
+	private static CopyResult result(final File sourceFile,
+			final File destinationFile, final long bytes,
+			final String algorithm, final byte[] value, final boolean sidecar)
+			throws IOException {
+		File sidecarFile = null;
+		if (sidecar) {
+			sidecarFile = getSidecar(destinationFile, algorithm);
+			FileUtils.writeStringToFile(sidecarFile, IOUtils.toHex(value)
+					+ "  " + destinationFile.getName() + "\n", "UTF-8");
+		}
+		return new CopyResult(sourceFile, destinationFile, bytes, algorithm,
+				value, sidecarFile);
+	}
+
+	/**
+	 * copy the source onto the target updating the digest, throttling and
+	 * monitoring the copy (if not null) and optionally forcing the target to
+	 * the storage device
+	 */
+	private static long copyChannels(final File sourceFile,
+			final File targetFile, final int size, final MessageDigest digest,
+			final CopyThrottle throttle, final TransferMonitor<?> monitor,
+			final boolean force) throws IOException {
+		RandomAccessFile s = null, d = null;
+		final long start = Metrics.started();
+		long bytes = 0;
+		boolean copied = false;
+		try {
+			s = new RandomAccessFile(sourceFile, "r");
+			d = new RandomAccessFile(targetFile, "rw");
+			if (digest != null || throttle != null)
+				bytes = IOUtils.copyFileChannel(size, s.getChannel(),
+						d.getChannel(), digest, throttle, monitor);
+			else
+				bytes = IOUtils.copyFileChannel(size, s.getChannel(),
+						d.getChannel(), false, monitor);
+			if (force)
+				d.getChannel().force(true);
+			copied = true;
+			return bytes;
+		} finally {
+			close(s);
+			close(d);
+			if (copied)
+				Metrics.completed(start, bytes);
+			else
+				Metrics.failed(start);
+		}
+	}
+
+	/**
+	 * Copy the input file onto the output file atomically: the bytes are
+	 * written to a hidden temporary file in the destination directory, which
+	 * is forced to the storage device and then renamed (with an atomic move)
+	 * to the destination.
+	 * <p>
+	 * Readers never see a partial destination: it does not exist (or it is
+	 * the old one) until it is complete, so consumers can react to its
+	 * appearance without waiting for the writer or locking the file.
+	 * 
+	 * @param sourceFile
+	 *            the {@link File} to copy from.
+	 * @param destinationFile
+	 *            the {@link File} to copy to (replaced if it exists).
+	 * @param size
+	 *            buffer size.
+	 * @return the number of copied bytes.
+	 * @throws IOException
+	 *             in case something bad happens (the temporary file is
+	 *             removed).
+	 * @see #getTempFile(File)
+	 */
+	public static long copyFileAtomic(File sourceFile, File destinationFile,
+			int size) throws IOException {
+		return copyFileAtomic(sourceFile, destinationFile, size, null, null);
+	}
+
+	/**
+	 * atomic copy (optionally throttled and monitored)
+	 */
+	static long copyFileAtomic(final File sourceFile,
+			final File destinationFile, final int size,
+			final CopyThrottle throttle, final TransferMonitor<?> monitor)
+			throws IOException {
+		checkCopy(sourceFile, destinationFile);
+		return copyAtomic(sourceFile, destinationFile, size, null, throttle,
+				monitor);
+	}
+
+	/**
+	 * copy to the temporary file and publish it
+	 */
+	private static long copyAtomic(final File sourceFile,
+			final File destinationFile, final int size,
+			final MessageDigest digest, final CopyThrottle throttle,
+			final TransferMonitor<?> monitor) throws IOException {
+		final File temp = getTempFile(destinationFile);
+		boolean published = false;
+		try {
+			final long bytes = copyChannels(sourceFile, temp, size, digest,
+					throttle, monitor, true);
+			publish(temp, destinationFile);
+			published = true;
+			return bytes;
+		} finally {
+			if (!published)
+				FileUtils.deleteQuietly(temp);
+		}
+	}
+
+	/**
+	 * Copy the input file onto the output file atomically computing the
+	 * digest of the copied bytes. The sidecar file (if requested) is written
+	 * once the destination is published.
+	 * 
+	 * @see #copyFileAtomic(File, File, int)
+	 * @see #copyFile(File, File, int, String, boolean)
+	 */
+	public static CopyResult copyFileAtomic(File sourceFile,
+			File destinationFile, int size, String algorithm, boolean sidecar)
+			throws IOException {
+		return copyFile(sourceFile, destinationFile, size, algorithm, sidecar,
+				true, null, null);
+	}
+
+	/**
+	 * Copy the input file onto the output file resuming it from the offset
+	 * recorded by the checkpoint. Every {@link Conf#DEFAULT_CHUNK_SIZE} bytes
+	 * the destination is forced to the storage device and the offset is
+	 * recorded, so an interrupted copy restarts from the last durable offset;
+	 * completed copies (of unchanged sources) are skipped. The checkpoint is
+	 * saved before returning.
+	 * 
+	 * @param sourceFile
+	 *            the {@link File} to copy from.
+	 * @param destinationFile
+	 *            the {@link File} to copy to.
+	 * @param size
+	 *            buffer size.
+	 * @param checkpoint
+	 *            the store of the copy progress
+	 * @return the number of bytes copied by this call (0 if the copy was
+	 *         already completed).
+	 * @throws IOException
+	 *             in case something bad happens (the reached offset is
+	 *             recorded).
+	 */
+	public static long copyFile(File sourceFile, File destinationFile,
+			int size, CopyCheckpoint checkpoint) throws IOException {
+		final long copied = copyFile(sourceFile, destinationFile, size,
+				checkpoint, null, null);
+		checkpoint.save();
+		return copied;
+	}
+
+	/**
+	 * resumable copy (optionally throttled and monitored)
+	 */
+	static long copyFile(final File sourceFile, final File destinationFile,
+			final int size, final CopyCheckpoint checkpoint,
+			final CopyThrottle throttle, final TransferMonitor<?> monitor)
+			throws IOException {
+		Objects.notNull(checkpoint);
+		checkCopy(sourceFile, destinationFile);
+		if (size <= 0)
+			throw new IllegalArgumentException("Illegal buffer size: " + size);
+		if (checkpoint.isCompleted(sourceFile, destinationFile)) {
+			if (LOGGER.isDebugEnabled())
+				LOGGER.debug("Skipping completed copy: " + destinationFile);
+			Metrics.getMetrics().onSkipped();
+			return 0;
+		}
+		final long offset = checkpoint.getOffset(sourceFile, destinationFile);
+		if (offset > 0 && LOGGER.isInfoEnabled())
+			LOGGER.info("Resuming copy of " + sourceFile + " to "
+					+ destinationFile + " from byte " + offset);
+
+		final ByteBufferPool pool = ByteBufferPool.getDirectPool();
+		final ByteBuffer buffer = pool.acquire(size);
+		RandomAccessFile s = null, d = null;
+		long pos = offset, durable = offset;
+		final long start = Metrics.started();
+		boolean copied = false;
+		try {
+			s = new RandomAccessFile(sourceFile, "r");
+			d = new RandomAccessFile(destinationFile, "rw");
+			final FileChannel source = s.getChannel();
+			final FileChannel destination = d.getChannel();
+			final long sourceSize = source.size();
+			if (monitor != null)
+				monitor.start(sourceSize, offset);
+			while (pos < sourceSize) {
+				buffer.clear();
+				buffer.limit((int) Math.min(size, sourceSize - pos));
+				if (throttle != null)
+					throttle.acquire(buffer.limit());
+				final int read = source.read(buffer, pos);
+				if (read <= 0)
+					throw new IOException("Unable to read bytes at position "
+							+ pos + " of " + sourceSize
+							+ ": the source may have been truncated.");
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					pos += destination.write(buffer, pos);
+				}
+				if (monitor != null)
+					monitor.transferred(buffer.limit());
+				if (pos - durable >= Conf.DEFAULT_CHUNK_SIZE) {
+					destination.force(false);
+					durable = pos;
+					checkpoint.setOffset(sourceFile, destinationFile, durable);
+				}
+			}
+			if (destination.size() > sourceSize)
+				destination.truncate(sourceSize);
+			destination.force(true);
+			durable = pos;
+			copied = true;
+			if (monitor != null)
+				monitor.completed();
+		} finally {
+			pool.release(buffer);
+			close(s);
+			close(d);
+			if (copied)
+				Metrics.completed(start, pos - offset);
+			else
+				Metrics.failed(start);
+			if (durable > offset && durable < sourceFile.length()) {
+				try {
+					checkpoint.setOffset(sourceFile, destinationFile, durable);
+					checkpoint.save();
+				} catch (IOException e) {
+					if (LOGGER.isWarnEnabled())
+						LOGGER.warn(e.getLocalizedMessage(), e);
+				}
+			}
+		}
+		checkpoint.setCompleted(sourceFile, destinationFile);
+		return pos - offset;
+	}
+
+	private static void checkCopy(final File sourceFile,
+			final File destinationFile) {
+		Objects.notNull(sourceFile, destinationFile);
+		if (!sourceFile.exists() || !sourceFile.canRead()
+				|| !sourceFile.isFile())
+			throw new IllegalStateException("Source is not in a legal state.");
+		if (destinationFile.getAbsolutePath().equalsIgnoreCase(
+				sourceFile.getAbsolutePath()))
+			throw new IllegalArgumentException("Cannot copy a file on itself");
+	}
+
+	/**
+	 * @return the hidden temporary sibling used to atomically write the file:
+	 *         <code>.name.copying-nanotime</code>
+	 */
+	public static File getTempFile(File file) {
+		return new File(file.getAbsoluteFile().getParentFile(), "."
+				+ file.getName() + TEMP_SUFFIX + System.nanoTime());
+	}
+
+	/**
+	 * @return true if the file name is the one of a temporary file built by
+	 *         {@link #getTempFile(File)}
+	 */
+	public static boolean isTempFile(File file) {
+		final String name = file.getName();
+		final int suffix = name.lastIndexOf(TEMP_SUFFIX);
+		if (!name.startsWith(".") || suffix < 2)
+			return false;
+		final int start = suffix + TEMP_SUFFIX.length();
+		if (start == name.length())
+			return false;
+		for (int i = start; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			if ((c < '0' || c > '9') && !(c == '-' && i == start))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * rename the temporary file to the destination
+	 */
+	private static void publish(final File temp, final File destinationFile)
+			throws IOException {
+		try {
+			Files.move(temp.toPath(), destinationFile.toPath(),
+					StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			// f.e. the destination is a link to another file system
+			if (LOGGER.isWarnEnabled())
+				LOGGER.warn("Atomic move not supported, replacing: "
+						+ destinationFile);
+			Files.move(temp.toPath(), destinationFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * @return the sidecar file of the digest: the file name followed by the
+	 *         lower case algorithm without dashes (f.e. file.txt.sha256)
+	 */
+	public static File getSidecar(File file, String algorithm) {
+		return new File(file.getPath() + "."
+				+ algorithm.replace("-", "").toLowerCase());
+	}
+
+	/**
+	 * close logging failures
+	 */
+	private static void close(final Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (Throwable t) {
+				if (LOGGER.isInfoEnabled())
+					LOGGER.info(t.getLocalizedMessage(), t);
+			}
+		}
+	}
+
+	/**
+	 * Copy the input file onto the output file splitting it into ranges of
+	 * {@link Conf#DEFAULT_CHUNK_SIZE} bytes which are copied concurrently
+	 * using an internal pool of 'parallelism' threads.
+	 * 
+	 * @see #parallelCopyFile(ExecutorService, File, File, long, int)
+	 */
+	public static long parallelCopyFile(File sourceFile, File destinationFile,
+			int parallelism) throws IOException {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Illegal parallelism: "
+					+ parallelism);
+		final ExecutorService es = Executors.newFixedThreadPool(parallelism);
+		try {
+			return parallelCopyFile(es, sourceFile, destinationFile,
+					Conf.DEFAULT_CHUNK_SIZE, Conf.getBufferSize());
+		} finally {
+			// do not interrupt the ranges: it closes the shared channels
+			es.shutdown();
+		}
+	}
+
+	/**
+	 * Copy the input file onto the output file splitting it into ranges of
+	 * chunkSize bytes which are copied concurrently using positional
+	 * {@link FileChannel} reads and writes.
+	 * <p>
+	 * This is useful for very big files on storage (f.e. NFS) which scales
+	 * with the number of concurrent streams. The destination is preallocated
+	 * to the source size and forced to the storage device once, when all the
+	 * ranges are written.
+	 * 
+	 * @param es
+	 *            the {@link ExecutorService} to use or null to use an internal
+	 *            pool sized to the number of available processors. A passed
+	 *            executor is NOT shut down.
+	 * @param sourceFile
+	 *            the {@link File} to copy from.
+	 * @param destinationFile
+	 *            the {@link File} to copy to.
+	 * @param chunkSize
+	 *            the size of each range copied by a single task.
+	 * @param bufferSize
+	 *            the size of the buffer used by each task.
+	 * @return the number of copied bytes.
+	 * @throws IOException
+	 *             in case something bad happens copying any of the ranges.
+	 */
+	public static long parallelCopyFile(ExecutorService es,
+			final File sourceFile, final File destinationFile,
+			final long chunkSize, final int bufferSize) throws IOException {
+		Objects.notNull(sourceFile, destinationFile);
+		if (!sourceFile.exists() || !sourceFile.canRead()
+				|| !sourceFile.isFile())
+			throw new IllegalStateException("Source is not in a legal state.");
+		if (destinationFile.getAbsolutePath().equalsIgnoreCase(
+				sourceFile.getAbsolutePath()))
+			throw new IllegalArgumentException("Cannot copy a file on itself");
+		if (chunkSize <= 0 || bufferSize <= 0)
+			throw new IllegalArgumentException(
+					"Chunk and buffer size must be positive");
+
+		final boolean internal = (es == null);
+		if (internal)
+			es = Executors.newFixedThreadPool(Runtime.getRuntime()
+					.availableProcessors());
+
+		RandomAccessFile s = null, d = null;
+		final List<Future<Long>> chunks = new ArrayList<Future<Long>>();
+		// set on failure: the ranges stop at the next buffer
+		final AtomicBoolean stopped = new AtomicBoolean();
+		final long started = Metrics.started();
+		long copied = -1;
+		try {
+			s = new RandomAccessFile(sourceFile, "r");
+			d = new RandomAccessFile(destinationFile, "rw");
+			final FileChannel source = s.getChannel();
+			final FileChannel destination = d.getChannel();
+
+			// preallocate the destination
+			final long size = source.size();
+			d.setLength(size);
+
+			for (long pos = 0; pos < size; pos += chunkSize) {
+				final long start = pos;
+				final long end = Math.min(size, pos + chunkSize);
+				chunks.add(es.submit(new Callable<Long>() {
+					public Long call() throws Exception {
+						return copyRange(source, destination, start, end,
+								bufferSize, stopped);
+					}
+				}));
+			}
+
+			long total = 0;
+			for (Future<Long> chunk : chunks) {
+				try {
+					total += chunk.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while copying "
+							+ sourceFile + " to " + destinationFile);
+				} catch (ExecutionException e) {
+					final Throwable cause = e.getCause();
+					if (cause instanceof IOException)
+						throw (IOException) cause;
+					final IOException ioe = new IOException("Unable to copy "
+							+ sourceFile + " to " + destinationFile);
+					ioe.initCause(cause);
+					throw ioe;
+				}
+			}
+			destination.force(true);
+			copied = total;
+			return copied;
+		} finally {
+			if (copied < 0)
+				Metrics.failed(started);
+			else
+				Metrics.completed(started, copied);
+			// stop still pending ranges (only on failure): they are not
+			// interrupted, since an interrupt closes the shared channels
+			stopped.set(true);
+			for (Future<Long> chunk : chunks) {
+				chunk.cancel(false);
+			}
+			if (internal)
+				es.shutdown();
+			if (s != null) {
+				try {
+					s.close();
+				} catch (Throwable t) {
+					if (LOGGER.isInfoEnabled())
+						LOGGER.info(t.getLocalizedMessage(), t);
+				}
+			}
+			if (d != null) {
+				try {
+					d.close();
+				} catch (Throwable t) {
+					if (LOGGER.isInfoEnabled())
+						LOGGER.info(t.getLocalizedMessage(), t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy the [start, end) range of the source channel at the same position
+	 * of the destination channel using positional reads and writes (which
+	 * are safe to be used concurrently on the same channels).
+	 * 
+	 * @param stopped
+	 *            checked at each buffer: once set the copy is stopped
+	 * @return the number of copied bytes
+	 */
+	private static long copyRange(final FileChannel source,
+			final FileChannel destination, final long start, final long end,
+			final int bufferSize, final AtomicBoolean stopped)
+			throws IOException {
+		final ByteBufferPool pool = ByteBufferPool.getDirectPool();
+		final int size = (int) Math.min(bufferSize, end - start);
+		final ByteBuffer buffer = pool.acquire(size);
+		try {
+			long pos = start;
+			while (pos < end) {
+				if (stopped.get() || Thread.currentThread().isInterrupted())
+					throw new InterruptedIOException("Range copy interrupted");
+				buffer.clear();
+				buffer.limit((int) Math.min(size, end - pos));
+				final int read = source.read(buffer, pos);
+				if (read < 0)
+					throw new IOException("Unexpected end of file at position "
+							+ pos + ": the source may have been truncated.");
+				buffer.flip();
+				long wpos = pos;
+				while (buffer.hasRemaining()) {
+					wpos += destination.write(buffer, wpos);
+				}
+				pos += read;
+			}
+		} finally {
+			pool.release(buffer);
+		}
+		return end - start;
+	}
+
 	/**
 	 * Copy a file (preserving data) to a destination (which can be on nfs)
 	 * waiting (at least) 'seconds' seconds for its propagation.
@@ -180,6 +867,48 @@ public abstract class Copy {
 	 */
 	public static File copyFileToNFS(final File source, final File dest,
 			final int seconds) {
+		return copyFileToNFS(source, dest, seconds, false);
+	}
+
+	/**
+	 * Copy a file (preserving data) to a destination (which can be on nfs)
+	 * waiting (at least) 'seconds' seconds for its propagation.
+	 * 
+	 * @param source
+	 * @param dest
+	 * @param seconds
+	 *            to wait (maximum) for nfs propagate. If -1 no check is
+	 *            performed.
+	 * @param atomic
+	 *            if true the file is published with an atomic rename (see
+	 *            {@link #copyFileAtomic(File, File, int)}): it is complete as
+	 *            soon as it exists so there is no need to wait for it.
+	 * @return the copied file if success, null if not.
+	 */
+	public static File copyFileToNFS(final File source, final File dest,
+			final int seconds, final boolean atomic) {
+		return copyFileToNFS(source, dest, seconds, atomic, null);
+	}
+
+	/**
+	 * Copy a file (preserving data) to a destination (which can be on nfs)
+	 * limiting the throughput.
+	 * 
+	 * @param source
+	 * @param dest
+	 * @param seconds
+	 *            to wait (maximum) for nfs propagate. If -1 no check is
+	 *            performed.
+	 * @param atomic
+	 *            if true the file is published with an atomic rename
+	 * @param throttle
+	 *            the limiter of the copy (can be null)
+	 * @return the copied file if success, null if not.
+	 * @see #copyFileToNFS(File, File, int, boolean)
+	 */
+	public static File copyFileToNFS(final File source, final File dest,
+			final int seconds, final boolean atomic,
+			final CopyThrottle throttle) {
 		try {
 			/**
 			 * Carlo commented out on 22 Aug 2011<br>
@@ -196,8 +925,16 @@ public abstract class Copy {
 			// } else
 			// return null;
 	
+			// small buffers keep the throttled copy smooth
+			final int size = throttle != null ? Conf.getBufferSize()
+					: Conf.DEFAULT_SIZE;
 			try {
-				copyFile(source, dest);
+				if (atomic)
+					copyFileAtomic(source, dest, size, throttle, null);
+				else if (throttle != null)
+					copyFile(source, dest, size, throttle);
+				else
+					copyFile(source, dest);
 			} catch (OverlappingFileLockException o) {
 				if (LOGGER.isErrorEnabled())
 					LOGGER.error("Problem writing the file: \'"
@@ -213,8 +950,8 @@ public abstract class Copy {
 				return null;
 			}
 	
-			if (seconds > 0) {
-				if (!FileUtils.waitFor(dest, seconds)) {
+			if (seconds > 0 && !atomic) {
+				if (!waitFor(dest, seconds)) {
 					if (LOGGER.isErrorEnabled())
 						LOGGER.error("Failed to propagate file to: "
 								+ dest.getAbsolutePath());
@@ -238,6 +975,73 @@ public abstract class Copy {
 		return dest;
 	}
 
+	/**
+	 * Wait for the file using the {@link FileReadiness} (instead of polling it
+	 * every second).
+	 * 
+	 * @return true if the file exists within seconds
+	 */
+	private static boolean waitFor(final File file, final int seconds) {
+		try {
+			return FileReadiness.getDefault()
+					.await(file, seconds, TimeUnit.SECONDS).get() != null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			return false;
+		} catch (CancellationException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Copy a file (preserving data) to a destination (which can be on nfs)
+	 * using the passed executor. Unlike
+	 * {@link #asynchFileCopyToNFS(ExecutorService, File, File, int)} the copy
+	 * thread does not wait for the propagation: it is awaited by the
+	 * {@link FileReadiness} and the executor is free to run other copies.
+	 * 
+	 * @param es
+	 *            the executor running the copy
+	 * @param source
+	 * @param destination
+	 * @param seconds
+	 *            to wait (maximum) for nfs propagate. If -1 no check is
+	 *            performed.
+	 * @return a future completed with the copied file when it is propagated,
+	 *         with null if the copy or the propagation fail.
+	 * @throws RejectedExecutionException
+	 *             - if this task cannot be accepted for execution.
+	 * @throws IllegalArgumentException
+	 *             - if executor is null or terminated.
+	 */
+	public static Future<File> copyFileToNFSAsync(final ExecutorService es,
+			final File source, final File destination, final int seconds)
+			throws RejectedExecutionException, IllegalArgumentException {
+		if (es == null || es.isTerminated()) {
+			throw new IllegalArgumentException(
+					"Unable to run asynchronously using a terminated or null ThreadPoolExecutor");
+		}
+		final FileReadiness.ReadyFuture result = new FileReadiness.ReadyFuture(
+				destination);
+		es.execute(new Runnable() {
+			public void run() {
+				if (result.isDone())
+					return;
+				// copy without waiting
+				final File copied = copyFileToNFS(source, destination, -1);
+				if (copied == null || seconds <= 0) {
+					result.complete(copied);
+				} else {
+					FileReadiness.getDefault().await(result, seconds,
+							TimeUnit.SECONDS);
+				}
+			}
+		});
+		return result;
+	}
+
 	/**
 	 * 
 	 * @param list
@@ -285,35 +1089,41 @@ public abstract class Copy {
 	 * nfs) waiting (at least) 'seconds' seconds for each file propagation.
 	 * 
 	 * @param es
-	 *            The ExecutorService or null if you want to use a
-	 *            CachedThreadPool.
-	 * @note potentially this is a bad executor (for log lists of big files)
-	 *       NOTE: we should make some tests on this 22 Aug 2011
+	 *            The ExecutorService or null if you want to use an internal
+	 *            bounded executor (see {@link CopyExecutors#newBoundedExecutor()}
+	 *            ) which is shut down at the end of the copy. A passed
+	 *            executor is NOT shut down, so it can be shared between
+	 *            several copies.
 	 * @param list
 	 * @param baseDestDir
-	 * @param overwrite
-	 *            if false and destination exists() do not overwrite the file
 	 * @param seconds
 	 * @return the resulting moved file list or null
 	 * 
 	 */
 	public static List<File> parallelCopyListFileToNFS(ExecutorService es,
 			final List<File> list, final File baseDestDir, final int seconds) {
+		return parallelCopyListFileToNFS(es, list, baseDestDir, seconds, null);
+	}
+
+	/**
+	 * @param throttle
+	 *            the limiter shared by the copies (can be null)
+	 * @see #parallelCopyListFileToNFS(ExecutorService, List, File, int)
+	 */
+	public static List<File> parallelCopyListFileToNFS(ExecutorService es,
+			final List<File> list, final File baseDestDir, final int seconds,
+			final CopyThrottle throttle) {
 	
+		final boolean internal = (es == null);
 		try {
 	
-			/*
-			 * this could be potentially a bad executor (for log lists of big
-			 * files) NOTE: we should make some tests on this 22 Aug 2011
-			 */
-			if (es == null) {
-				final ThreadFactory threadFactory = Executors
-						.defaultThreadFactory();
-				es = Executors.newCachedThreadPool(threadFactory);
+			if (internal) {
+				// bounded: the caller runs the copy when the queue is full
+				es = CopyExecutors.newBoundedExecutor();
 			}
 	
 			final List<FutureTask<File>> futureFileList = asynchCopyListFileToNFS(
-					es, list, baseDestDir, seconds);
+					es, list, baseDestDir, seconds, throttle);
 	
 			// list
 			if (futureFileList == null) {
@@ -363,7 +1173,7 @@ public abstract class Copy {
 			if (LOGGER.isErrorEnabled())
 				LOGGER.error("Unrecognized error occurred. ", t);
 		} finally {
-			if (es != null)
+			if (internal && es != null)
 				es.shutdownNow();
 		}
 		return null;
@@ -386,19 +1196,50 @@ public abstract class Copy {
 			final ExecutorService ex, final File source,
 			final File destination, final int seconds)
 			throws RejectedExecutionException, IllegalArgumentException {
+		return asynchFileCopyToNFS(ex, source, destination, seconds, null);
+	}
+
+	/**
+	 * @param throttle
+	 *            the limiter of the copy (can be null)
+	 * @see #asynchFileCopyToNFS(ExecutorService, File, File, int)
+	 */
+	public static FutureTask<File> asynchFileCopyToNFS(
+			final ExecutorService ex, final File source,
+			final File destination, final int seconds,
+			final CopyThrottle throttle) throws RejectedExecutionException,
+			IllegalArgumentException {
 		if (ex == null || ex.isTerminated()) {
 			throw new IllegalArgumentException(
 					"Unable to run asynchronously using a terminated or null ThreadPoolExecutor");
 		}
 	
+		// dequeued once: when started or when canceled before starting
+		final AtomicBoolean dequeued = new AtomicBoolean();
 		final Callable<File> call = new Callable<File>() {
 			public File call() throws Exception {
-				return Copy.copyFileToNFS(source, destination, seconds);
+				if (dequeued.compareAndSet(false, true))
+					Metrics.getMetrics().onDequeued();
+				return Copy.copyFileToNFS(source, destination, seconds, false,
+						throttle);
 			}
 		};
 		//
-		final FutureTask<File> futureFile = new FutureTask<File>(call);
-		ex.execute(futureFile);
+		final FutureTask<File> futureFile = new FutureTask<File>(call) {
+			@Override
+			protected void done() {
+				if (dequeued.compareAndSet(false, true))
+					Metrics.getMetrics().onDequeued();
+			}
+		};
+		Metrics.getMetrics().onQueued();
+		try {
+			ex.execute(futureFile);
+		} catch (RejectedExecutionException e) {
+			if (dequeued.compareAndSet(false, true))
+				Metrics.getMetrics().onDequeued();
+			throw e;
+		}
 		return futureFile;
 		// return ex.submit(call);
 	}
@@ -422,30 +1263,22 @@ public abstract class Copy {
 	public static List<FutureTask<File>> asynchCopyListFileToNFS(
 			final ExecutorService ex, final List<File> list,
 			final File baseDestDir, final int seconds) {
-		// list
-		if (list == null) {
-			if (LOGGER.isErrorEnabled())
-				LOGGER.error("Failed to copy file list using a NULL list");
+		return asynchCopyListFileToNFS(ex, list, baseDestDir, seconds, null);
+	}
+
+	/**
+	 * @param throttle
+	 *            the limiter shared by the copies (can be null)
+	 * @see #asynchCopyListFileToNFS(ExecutorService, List, File, int)
+	 */
+	public static List<FutureTask<File>> asynchCopyListFileToNFS(
+			final ExecutorService ex, final List<File> list,
+			final File baseDestDir, final int seconds,
+			final CopyThrottle throttle) {
+		if (!checkCopyList(list, baseDestDir)) {
 			return null;
 		}
 		final int size = list.size();
-		if (size == 0) {
-			if (LOGGER.isErrorEnabled())
-				LOGGER.error("Failed to copy file list using an empty list");
-			return null;
-		}
-		// baseDestDir
-		if (baseDestDir == null) {
-			if (LOGGER.isErrorEnabled())
-				LOGGER.error("Failed to copy file list using a NULL baseDestDir");
-			return null;
-		} else if (!baseDestDir.isDirectory() || !baseDestDir.canWrite()) {
-			if (LOGGER.isErrorEnabled())
-				LOGGER.error("Failed to copy file list using a not "
-						+ "writeable directory as baseDestDir: "
-						+ baseDestDir.getAbsolutePath());
-			return null;
-		}
 		// Asynch executor check
 		if (ex == null || ex.isTerminated()) {
 			if (LOGGER.isErrorEnabled())
@@ -460,7 +1293,7 @@ public abstract class Copy {
 				if (file.exists()) {
 					try {
 						asyncRes.add(asynchFileCopyToNFS(ex, file, new File(
-								baseDestDir, file.getName()), seconds));
+								baseDestDir, file.getName()), seconds, throttle));
 					} catch (RejectedExecutionException e) {
 						if (LOGGER.isWarnEnabled())
 							LOGGER.warn("SKIPPING file:\n"
@@ -483,4 +1316,198 @@ public abstract class Copy {
 	
 		return asyncRes;
 	}
+
+	/**
+	 * Copy a list of files asynchronously to a destination (which can be on
+	 * nfs) submitting each copy to the passed {@link CompletionService}.
+	 * <p>
+	 * Copied files can be taken from the CompletionService as soon as each
+	 * copy completes (in completion order), so that a slow copy does not
+	 * delay the processing of the others. A task returning null means that
+	 * the copy of that file failed.
+	 * 
+	 * @param cs
+	 *            the {@link CompletionService} to use
+	 * @param list
+	 *            the files to copy
+	 * @param baseDestDir
+	 *            the destination directory
+	 * @param seconds
+	 *            to wait (maximum) for nfs propagate. If -1 no check is
+	 *            performed.
+	 * @return the number of submitted copies (the number of results to take
+	 *         from the CompletionService) or -1 if the arguments are not
+	 *         valid.
+	 */
+	public static int asynchCopyListFileToNFS(final CompletionService<File> cs,
+			final List<File> list, final File baseDestDir, final int seconds) {
+		if (!checkCopyList(list, baseDestDir)) {
+			return -1;
+		}
+		if (cs == null) {
+			if (LOGGER.isErrorEnabled())
+				LOGGER.error("Unable to run asynchronously using a null CompletionService");
+			return -1;
+		}
+		int submitted = 0;
+		for (final File file : list) {
+			if (file != null) {
+				if (file.exists()) {
+					final File destination = new File(baseDestDir,
+							file.getName());
+					try {
+						cs.submit(new Callable<File>() {
+							public File call() throws Exception {
+								return Copy.copyFileToNFS(file, destination,
+										seconds);
+							}
+						});
+						submitted++;
+					} catch (RejectedExecutionException e) {
+						if (LOGGER.isWarnEnabled())
+							LOGGER.warn("SKIPPING file:\n"
+									+ file.getAbsolutePath() + ".\nError: "
+									+ e.getLocalizedMessage());
+					}
+				} else {
+					if (LOGGER.isWarnEnabled())
+						LOGGER.warn("SKIPPING file:\n" + file.getAbsolutePath()
+								+ "\nUnable to copy a not existent file.");
+				}
+			}
+		}
+		return submitted;
+	}
+
+	/**
+	 * Copy a list of files asynchronously to a destination (which can be on
+	 * nfs) returning an {@link Iterator} over the copied files in completion
+	 * order: the first copied file is available as soon as its copy is
+	 * completed.
+	 * <p>
+	 * {@link Iterator#hasNext()} blocks until the next copy completes; failed
+	 * copies are logged and skipped. If the iterating thread is interrupted
+	 * the iteration ends (the interrupted status is preserved).
+	 * 
+	 * @param es
+	 *            the ExecutorService to use (it is NOT shut down).
+	 * @param list
+	 *            the files to copy
+	 * @param baseDestDir
+	 *            the destination directory
+	 * @param seconds
+	 *            to wait (maximum) for nfs propagate. If -1 no check is
+	 *            performed.
+	 * @return the completion ordered iterator or null if the arguments are
+	 *         not valid.
+	 */
+	public static Iterator<File> streamCopyListFileToNFS(
+			final ExecutorService es, final List<File> list,
+			final File baseDestDir, final int seconds) {
+		if (es == null || es.isShutdown()) {
+			if (LOGGER.isErrorEnabled())
+				LOGGER.error("Unable to run asynchronously using a terminated or null ExecutorService");
+			return null;
+		}
+		final CompletionService<File> cs = new ExecutorCompletionService<File>(
+				es);
+		final int submitted = asynchCopyListFileToNFS(cs, list, baseDestDir,
+				seconds);
+		if (submitted < 0) {
+			return null;
+		}
+		return new CompletionIterator(cs, submitted);
+	}
+
+	/**
+	 * checks the arguments of the list copy methods
+	 * 
+	 * @return true if the arguments are valid.
+	 */
+	private static boolean checkCopyList(final List<File> list,
+			final File baseDestDir) {
+		// list
+		if (list == null) {
+			if (LOGGER.isErrorEnabled())
+				LOGGER.error("Failed to copy file list using a NULL list");
+			return false;
+		}
+		if (list.size() == 0) {
+			if (LOGGER.isErrorEnabled())
+				LOGGER.error("Failed to copy file list using an empty list");
+			return false;
+		}
+		// baseDestDir
+		if (baseDestDir == null) {
+			if (LOGGER.isErrorEnabled())
+				LOGGER.error("Failed to copy file list using a NULL baseDestDir");
+			return false;
+		} else if (!baseDestDir.isDirectory() || !baseDestDir.canWrite()) {
+			if (LOGGER.isErrorEnabled())
+				LOGGER.error("Failed to copy file list using a not "
+						+ "writeable directory as baseDestDir: "
+						+ baseDestDir.getAbsolutePath());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Iterates over the results of a {@link CompletionService} in completion
+	 * order skipping failed copies.
+	 */
+	private static final class CompletionIterator implements Iterator<File> {
+		private final CompletionService<File> cs;
+
+		// results still to take from the CompletionService
+		private int pending;
+
+		// the next file to return (prefetched by hasNext)
+		private File next = null;
+
+		CompletionIterator(final CompletionService<File> cs, final int pending) {
+			this.cs = cs;
+			this.pending = pending;
+		}
+
+		public synchronized boolean hasNext() {
+			while (next == null && pending > 0) {
+				try {
+					final File file = cs.take().get();
+					pending--;
+					if (file != null && file.exists()) {
+						next = file;
+					} else if (LOGGER.isWarnEnabled()) {
+						LOGGER.warn("SKIPPING file:\n\t" + file
+								+ ".\nUnable to copy a not existent file.");
+					}
+				} catch (InterruptedException e) {
+					if (LOGGER.isErrorEnabled())
+						LOGGER.error("Interrupted while waiting for the next copied file.",
+								e);
+					Thread.currentThread().interrupt();
+					pending = 0;
+				} catch (ExecutionException e) {
+					pending--;
+					if (LOGGER.isErrorEnabled())
+						LOGGER.error(
+								"Unable to get the file from this future File copy. ",
+								e);
+				}
+			}
+			return next != null;
+		}
+
+		public synchronized File next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			final File file = next;
+			next = null;
+			return file;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
 }
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.io.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The persisted progress of a set of copies, used to resume them after a
+ * failure or a restart.
+ * <p>
+ * For each destination the store records the size and modification time of
+ * its source and the number of bytes already written (and forced to the
+ * storage device) or the completion of the copy. A record is ignored if the
+ * source changed since it was written.
+ * <p>
+ * The store is a properties file rewritten atomically (temporary file then
+ * rename) at most once every {@link #SAVE_INTERVAL} ms while recording the
+ * offsets and the completions: call {@link #save()} to persist the pending
+ * records. The store is written without holding the lock used to record, so
+ * the copies are not blocked by a save.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ * @see Copy#copyFile(File, File, int, CopyCheckpoint)
+ * @see CopyTree#setCheckpoint(CopyCheckpoint)
+ */
+public class CopyCheckpoint {
+
+	private final static Logger LOGGER = LoggerFactory
+			.getLogger(CopyCheckpoint.class);
+
+	/**
+	 * the min interval (ms) between two saves of the recorded offsets
+	 */
+	public static final long SAVE_INTERVAL = 1000;
+
+	private static final long COMPLETED = -1;
+
+	private final File store;
+
+	/**
+	 * destination path to: source size, source last modified, offset
+	 */
+	private final Properties records = new Properties();
+
+	private long lastSave = 0;
+
+	private boolean dirty = false;
+
+	/**
+	 * serializes the writes of the store
+	 */
+	private final Object saveLock = new Object();
+
+	/**
+	 * @param store
+	 *            the file persisting the checkpoint (loaded if it exists)
+	 * @throws IOException
+	 *             if the existing store cannot be read
+	 */
+	public CopyCheckpoint(final File store) throws IOException {
+		if (store == null)
+			throw new IllegalArgumentException("Invalid null argument");
+		this.store = store;
+		if (store.isFile()) {
+			final FileInputStream fis = new FileInputStream(store);
+			try {
+				records.load(fis);
+			} finally {
+				IOUtils.closeQuietly(fis);
+			}
+			if (LOGGER.isInfoEnabled())
+				LOGGER.info("Loaded " + records.size() + " checkpoints from: "
+						+ store);
+		}
+	}
+
+	/**
+	 * @return the file persisting the checkpoint
+	 */
+	public File getStore() {
+		return store;
+	}
+
+	private static String key(final File destination) {
+		return destination.getAbsolutePath();
+	}
+
+	/**
+	 * @return the recorded offset or null if there is no valid record
+	 */
+	private Long get(final File source, final File destination) {
+		final String value = records.getProperty(key(destination));
+		if (value == null)
+			return null;
+		final String[] fields = value.split(":");
+		try {
+			if (fields.length == 3
+					&& Long.parseLong(fields[0]) == source.length()
+					&& Long.parseLong(fields[1]) == source.lastModified())
+				return Long.valueOf(fields[2]);
+		} catch (NumberFormatException e) {
+			// corrupted record
+		}
+		return null;
+	}
+
+	private void put(final File source, final File destination,
+			final long offset) {
+		records.setProperty(key(destination), source.length() + ":"
+				+ source.lastModified() + ":" + offset);
+		dirty = true;
+	}
+
+	/**
+	 * @return the offset to resume the copy from: 0 if there is no valid
+	 *         record, never more than the destination size
+	 */
+	public synchronized long getOffset(final File source,
+			final File destination) {
+		final Long offset = get(source, destination);
+		if (offset == null || offset.longValue() < 0)
+			return 0;
+		return Math.min(offset.longValue(), destination.length());
+	}
+
+	/**
+	 * Record the bytes written to the destination: they must be already
+	 * forced to the storage device.
+	 *
+	 * @throws IOException
+	 *             if the store cannot be saved
+	 */
+	public void setOffset(final File source, final File destination,
+			final long offset) throws IOException {
+		if (record(source, destination, offset))
+			save();
+	}
+
+	/**
+	 * @return true if the records should be saved
+	 */
+	private synchronized boolean record(final File source,
+			final File destination, final long offset) {
+		put(source, destination, offset);
+		final long now = System.currentTimeMillis();
+		if (now - lastSave < SAVE_INTERVAL)
+			return false;
+		lastSave = now;
+		return true;
+	}
+
+	/**
+	 * @return true if the copy of the (unchanged) source to the existing
+	 *         destination was completed
+	 */
+	public synchronized boolean isCompleted(final File source,
+			final File destination) {
+		final Long offset = get(source, destination);
+		return offset != null && offset.longValue() == COMPLETED
+				&& destination.length() == source.length();
+	}
+
+	/**
+	 * Record the completion of the copy (saved at most once every
+	 * {@link #SAVE_INTERVAL} ms, see {@link #save()}).
+	 *
+	 * @throws IOException
+	 *             if the store cannot be saved
+	 */
+	public void setCompleted(final File source, final File destination)
+			throws IOException {
+		if (record(source, destination, COMPLETED))
+			save();
+	}
+
+	/**
+	 * @return the number of records
+	 */
+	public synchronized int size() {
+		return records.size();
+	}
+
+	/**
+	 * Save the pending records.
+	 *
+	 * @throws IOException
+	 *             if the store cannot be written
+	 */
+	public void save() throws IOException {
+		synchronized (saveLock) {
+			final Properties snapshot;
+			synchronized (this) {
+				if (!dirty)
+					return;
+				snapshot = (Properties) records.clone();
+				dirty = false;
+				lastSave = System.currentTimeMillis();
+			}
+			boolean saved = false;
+			try {
+				write(snapshot);
+				saved = true;
+			} finally {
+				if (!saved) {
+					synchronized (this) {
+						dirty = true;
+					}
+				}
+			}
+		}
+	}
+
+	private void write(final Properties snapshot) throws IOException {
+		final File temp = Copy.getTempFile(store);
+		FileOutputStream fos = null;
+		try {
+			fos = new FileOutputStream(temp);
+			snapshot.store(fos, null);
+			fos.getFD().sync();
+			fos.close();
+			fos = null;
+			try {
+				Files.move(temp.toPath(), store.toPath(),
+						StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), store.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			IOUtils.closeQuietly(fos);
+			FileUtils.deleteQuietly(temp);
+		}
+	}
+
+	/**
+	 * Forget all the records and remove the store (f.e. once all the copies
+	 * are completed).
+	 */
+	public void clear() {
+		synchronized (saveLock) {
+			synchronized (this) {
+				records.clear();
+				dirty = false;
+			}
+			FileUtils.deleteQuietly(store);
+		}
+	}
+}
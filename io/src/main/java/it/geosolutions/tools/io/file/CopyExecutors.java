@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.io.file;
+
+import it.geosolutions.tools.commons.Conf;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory for the executors used to run copy tasks.
+ * <p>
+ * Copies are I/O bound and each of them can hold big buffers, so the
+ * executors built here have a bounded number of threads and a bounded queue.
+ * When the queue is full the submitting thread runs the copy itself
+ * ({@link ThreadPoolExecutor.CallerRunsPolicy}), which slows down the
+ * producer instead of spawning new threads or rejecting the task.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ * @see Conf#getCopyThreads()
+ * @see Conf#getCopyQueueSize()
+ */
+public final class CopyExecutors {
+
+	private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+	/**
+	 * do not instantiate
+	 */
+	private CopyExecutors() {
+	}
+
+	/**
+	 * @return a bounded executor configured with {@link Conf#getCopyThreads()}
+	 *         threads and a queue of {@link Conf#getCopyQueueSize()} tasks.
+	 * @see #newBoundedExecutor(int, int)
+	 */
+	public static ThreadPoolExecutor newBoundedExecutor() {
+		return newBoundedExecutor(Conf.getCopyThreads(),
+				Conf.getCopyQueueSize());
+	}
+
+	/**
+	 * Build a bounded executor for copy tasks. All the threads are daemon so
+	 * a forgotten executor does not prevent the JVM from exiting.
+	 *
+	 * @param threads
+	 *            the maximum number of concurrent copies.
+	 * @param queueSize
+	 *            the maximum number of copies waiting for a free thread.
+	 * @return the executor (the caller is responsible for shutting it down).
+	 * @throws IllegalArgumentException
+	 *             if threads or queueSize are less than 1
+	 */
+	public static ThreadPoolExecutor newBoundedExecutor(final int threads,
+			final int queueSize) throws IllegalArgumentException {
+		if (threads < 1 || queueSize < 1)
+			throw new IllegalArgumentException(
+					"Threads and queue size must be positive");
+
+		final String prefix = "Copy-" + POOL_COUNT.incrementAndGet() + "-";
+		final ThreadFactory factory = new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				final Thread t = new Thread(r, prefix
+						+ count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+		return new ThreadPoolExecutor(threads, threads, 0L,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+						queueSize), factory,
+				new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.io.file;
+
+import java.io.File;
+
+/**
+ * The result of a verified copy: the copied bytes and their digest.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ * @see Copy#copyFile(File, File, int, String, boolean)
+ */
+public class CopyResult {
+
+	private final File source;
+
+	private final File destination;
+
+	private final long bytes;
+
+	private final String algorithm;
+
+	private final byte[] digest;
+
+	private final File sidecar;
+
+	CopyResult(final File source, final File destination, final long bytes,
+			final String algorithm, final byte[] digest, final File sidecar) {
+		this.source = source;
+		this.destination = destination;
+		this.bytes = bytes;
+		this.algorithm = algorithm;
+		this.digest = digest;
+		this.sidecar = sidecar;
+	}
+
+	/**
+	 * @return the copied file
+	 */
+	public File getSource() {
+		return source;
+	}
+
+	/**
+	 * @return the copy
+	 */
+	public File getDestination() {
+		return destination;
+	}
+
+	/**
+	 * @return the number of copied bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the digest algorithm
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * @return the digest of the copied bytes
+	 */
+	public byte[] getDigest() {
+		return digest.clone();
+	}
+
+	/**
+	 * @return the digest of the copied bytes as lower case hexadecimal
+	 */
+	public String getDigestHex() {
+		return IOUtils.toHex(digest);
+	}
+
+	/**
+	 * @return the file holding the digest or null if it was not written
+	 */
+	public File getSidecar() {
+		return sidecar;
+	}
+
+	@Override
+	public String toString() {
+		return "CopyResult [source=" + source + ", destination="
+				+ destination + ", bytes=" + bytes + ", " + algorithm + "="
+				+ getDigestHex() + "]";
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.io.file;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiter of the bandwidth (bytes per second) and of the I/O
+ * operations per second of the copies using it.
+ * <p>
+ * Each bucket holds at most one second of tokens, so an idle copy can burst
+ * for up to a second (a new throttle starts idle, with full buckets). Limits can be changed at any time and apply to the
+ * next operations; a limit of {@link #UNLIMITED} disables it.
+ * <p>
+ * Throttles can be chained: a job throttle (f.e. limiting the IOPS of a
+ * single {@link CopyTree}) takes its tokens also from its parent (f.e. the
+ * throttle of a shared NFS link). The parent serves the waiting children by
+ * {@link Priority}: a child waits while children of a more urgent priority
+ * are waiting for tokens, so background bulk copies yield the link to the
+ * latency sensitive ones.
+ *
+ * <pre>
+ * final CopyThrottle link = new CopyThrottle(50L * 1024 * 1024,
+ * 		CopyThrottle.UNLIMITED);
+ * final CopyThrottle bulk = new CopyThrottle(link,
+ * 		CopyThrottle.Priority.BACKGROUND, CopyThrottle.UNLIMITED, 200);
+ * copyTree.setThrottle(bulk);
+ * </pre>
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ */
+public final class CopyThrottle {
+
+	/**
+	 * the priority class of the throttled operations, most urgent first
+	 */
+	public enum Priority {
+		INTERACTIVE, NORMAL, BACKGROUND
+	}
+
+	/**
+	 * disables a limit
+	 */
+	public static final long UNLIMITED = 0;
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final CopyThrottle parent;
+
+	private volatile Priority priority;
+
+	private volatile long bytesPerSecond;
+
+	private volatile long opsPerSecond;
+
+	private final Object lock = new Object();
+
+	/**
+	 * the time the byte tokens are available (guarded by lock): a second ago,
+	 * the bucket is full
+	 */
+	private long nextBytes = System.nanoTime() - SECOND;
+
+	/**
+	 * the time the operation tokens are available (guarded by lock)
+	 */
+	private long nextOps = nextBytes;
+
+	/**
+	 * waiting operations by priority (guarded by lock)
+	 */
+	private final int[] waiting = new int[Priority.values().length];
+
+	/**
+	 * A {@link Priority#NORMAL} throttle without parent.
+	 *
+	 * @param bytesPerSecond
+	 *            the max bandwidth or {@link #UNLIMITED}
+	 * @param opsPerSecond
+	 *            the max I/O operations per second or {@link #UNLIMITED}
+	 */
+	public CopyThrottle(final long bytesPerSecond, final long opsPerSecond) {
+		this(null, Priority.NORMAL, bytesPerSecond, opsPerSecond);
+	}
+
+	/**
+	 * @param parent
+	 *            the throttle also limiting this one (can be null)
+	 * @param priority
+	 *            the priority of this throttle operations on the parent
+	 * @param bytesPerSecond
+	 *            the max bandwidth or {@link #UNLIMITED}
+	 * @param opsPerSecond
+	 *            the max I/O operations per second or {@link #UNLIMITED}
+	 */
+	public CopyThrottle(final CopyThrottle parent, final Priority priority,
+			final long bytesPerSecond, final long opsPerSecond) {
+		if (priority == null)
+			throw new IllegalArgumentException("Invalid null priority");
+		this.parent = parent;
+		this.priority = priority;
+		setBytesPerSecond(bytesPerSecond);
+		setOpsPerSecond(opsPerSecond);
+	}
+
+	/**
+	 * @return the throttle also limiting this one (or null)
+	 */
+	public CopyThrottle getParent() {
+		return parent;
+	}
+
+	public Priority getPriority() {
+		return priority;
+	}
+
+	public void setPriority(final Priority priority) {
+		if (priority == null)
+			throw new IllegalArgumentException("Invalid null priority");
+		this.priority = priority;
+	}
+
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * @param bytesPerSecond
+	 *            the max bandwidth or {@link #UNLIMITED}
+	 */
+	public void setBytesPerSecond(final long bytesPerSecond) {
+		if (bytesPerSecond < 0)
+			throw new IllegalArgumentException("Negative bandwidth: "
+					+ bytesPerSecond);
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	public long getOpsPerSecond() {
+		return opsPerSecond;
+	}
+
+	/**
+	 * @param opsPerSecond
+	 *            the max I/O operations per second or {@link #UNLIMITED}
+	 */
+	public void setOpsPerSecond(final long opsPerSecond) {
+		if (opsPerSecond < 0)
+			throw new IllegalArgumentException("Negative IOPS: "
+					+ opsPerSecond);
+		this.opsPerSecond = opsPerSecond;
+	}
+
+	/**
+	 * Wait for the tokens of an I/O operation of the passed bytes (on this
+	 * throttle and on its parents).
+	 *
+	 * @param bytes
+	 *            the bytes to transfer
+	 * @throws InterruptedIOException
+	 *             if the thread is interrupted while waiting
+	 */
+	public void acquire(final int bytes) throws InterruptedIOException {
+		acquire(bytes, priority);
+	}
+
+	private void acquire(final int bytes, final Priority priority)
+			throws InterruptedIOException {
+		take(bytes, priority);
+		if (parent != null)
+			parent.acquire(bytes, priority);
+	}
+
+	private void take(final int bytes, final Priority priority)
+			throws InterruptedIOException {
+		final long bps = bytesPerSecond;
+		final long ops = opsPerSecond;
+		if (bps == UNLIMITED && ops == UNLIMITED)
+			return;
+		final int level = priority.ordinal();
+		long wait;
+		synchronized (lock) {
+			waiting[level]++;
+			try {
+				while (isMoreUrgentWaiting(level)) {
+					lock.wait();
+				}
+			} catch (InterruptedException e) {
+				done(level);
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while throttled");
+			}
+			wait = reserve(bytes, bps, ops);
+		}
+		try {
+			if (wait > 0)
+				TimeUnit.NANOSECONDS.sleep(wait);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while throttled");
+		} finally {
+			synchronized (lock) {
+				done(level);
+			}
+		}
+	}
+
+	/**
+	 * (guarded by lock)
+	 */
+	private boolean isMoreUrgentWaiting(final int level) {
+		for (int i = 0; i < level; i++) {
+			if (waiting[i] > 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * (guarded by lock)
+	 */
+	private void done(final int level) {
+		waiting[level]--;
+		lock.notifyAll();
+	}
+
+	/**
+	 * take the tokens (guarded by lock)
+	 *
+	 * @return the nanoseconds to wait for them
+	 */
+	private long reserve(final int bytes, final long bps, final long ops) {
+		final long now = System.nanoTime();
+		// a bucket holds at most a second of tokens
+		final long full = now - SECOND;
+		long wait = 0;
+		if (bps != UNLIMITED) {
+			if (nextBytes - full < 0)
+				nextBytes = full;
+			nextBytes += bytes * SECOND / bps;
+			wait = nextBytes - now;
+		}
+		if (ops != UNLIMITED) {
+			if (nextOps - full < 0)
+				nextOps = full;
+			nextOps += SECOND / ops;
+			wait = Math.max(wait, nextOps - now);
+		}
+		return wait;
+	}
+}
@@ -18,21 +18,33 @@
  */
 package it.geosolutions.tools.io.file;
 
+import it.geosolutions.tools.commons.Conf;
 import it.geosolutions.tools.commons.file.Path;
 import it.geosolutions.tools.commons.listener.DefaultProgress;
 import it.geosolutions.tools.commons.listener.Progress;
+import it.geosolutions.tools.commons.listener.ProgressAggregator;
 import it.geosolutions.tools.commons.listener.ProgressList;
+import it.geosolutions.tools.commons.listener.TransferMonitor;
+import it.geosolutions.tools.commons.listener.TransferProgress;
+import it.geosolutions.tools.io.metrics.Metrics;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.DirectoryWalker;
 import org.apache.commons.io.FileUtils;
@@ -50,45 +62,313 @@ public class CopyTree extends DirectoryWalker<Future<File>> {
 	private final static Logger LOGGER = LoggerFactory
 			.getLogger(CopyTree.class);
 
+	/**
+	 * The order used to submit the copies.
+	 */
+	public enum Scheduling {
+		/**
+		 * each file is submitted as soon as it is collected (the walk order)
+		 */
+		WALK,
+		/**
+		 * the files are collected (and sized) first and submitted from the
+		 * largest one, so a big file does not become the tail of the copy
+		 */
+		LARGEST_FIRST
+	}
+
+	/**
+	 * shared by the listeners of the single file copies
+	 */
+	private final static Logger FILE_LOGGER = LoggerFactory
+			.getLogger(CopyTree.class.getName() + ".file");
+
+	/**
+	 * default max number of copy progress events per second
+	 */
+	public static final int DEFAULT_PROGRESS_RATE = 10;
+
+	/**
+	 * default min advance (percentage) between two copy progress events
+	 */
+	public static final float DEFAULT_PROGRESS_STEP = 1f;
+
+	/**
+	 * default bytes between two progress events of a single file copy
+	 */
+	public static final long DEFAULT_PROGRESS_GRANULARITY = 1024 * 1024;
+
 	private final CompletionService<File> cs;
 
 	private final File sourceDir;
 	private final File destDir;
 
+	private final FileFilter filter;
+	private final int depthLimit;
+
 	/**
 	 * container for futures works this is internally handled to avoid
-	 * concurrent modification during collecting operations.
+	 * concurrent modification during collecting operations.<br>
+	 * Synchronized since the parallel collecting operation adds to it from
+	 * several threads.
+	 */
+	private final List<Future<File>> works = Collections
+			.synchronizedList(new ArrayList<Future<File>>());
+
+	/**
+	 * the submitted copy tasks: the ones not yet started are discarded on
+	 * cancel (see {@link #cancelCopyCalls()})
 	 */
-	private final Collection<Future<File>> works = new ArrayList<Future<File>>();
+	private final List<CopyCall> calls = Collections
+			.synchronizedList(new ArrayList<CopyCall>());
 
 	private final ProgressList<String> collectingProgressList = new ProgressList<String>();
 	/**
 	 * used to track cancel collecting op.
 	 */
-	private boolean collectingCanceled = false;
+	private volatile boolean collectingCanceled = false;
 	/**
 	 * used to track end of collecting op.
 	 */
-	private boolean collectingCompleted = false;
+	private volatile boolean collectingCompleted = false;
 
 	private final ProgressList<String> copyProgressList = new ProgressList<String>();
 
 	/**
-	 * represents the sum of all the collected file size<br>
-	 * It is used to calculate copyProgressList
-	 */
-	private volatile long copyTotalSize = 0L;
-	/**
-	 * represents the current copyProgress status in byte
+	 * accumulates the collected (total) and the copied file size and notifies
+	 * copyProgressList at a limited rate
 	 * 
 	 * @see {@link CopyTree#updateProgress(long)}
 	 */
-	private volatile long copyProgress = 0L;
+	private final ProgressAggregator<String> copyProgress = new ProgressAggregator<String>(
+			copyProgressList, DEFAULT_PROGRESS_RATE, DEFAULT_PROGRESS_STEP);
+	/**
+	 * the fake % progress warning is sent only once
+	 */
+	private final AtomicBoolean fakeProgressWarned = new AtomicBoolean();
 	/**
 	 * used to track cancel file copy op.
 	 */
-	private boolean copyCanceled = false;
-	private boolean copyStarted = false;
+	private volatile boolean copyCanceled = false;
+	/**
+	 * set by the first scheduled copy (from several threads while
+	 * collecting in parallel)
+	 */
+	private final AtomicBoolean copyStarted = new AtomicBoolean();
+
+	/**
+	 * if true skip files which are already up to date at the destination
+	 */
+	private volatile boolean incremental = false;
+	/**
+	 * if true (and incremental) compare the content of the files, not only
+	 * size and modification time
+	 */
+	private volatile boolean compareContent = false;
+	/**
+	 * if true remove destination files which do not exist in the source tree
+	 */
+	private volatile boolean deleteOrphans = false;
+	/**
+	 * the digest algorithm computed while copying (null to disable)
+	 */
+	private volatile String digestAlgorithm = null;
+	/**
+	 * if true write the digest of each copied file to its sidecar file
+	 */
+	private volatile boolean digestSidecar = false;
+	/**
+	 * if true publish each file with an atomic rename
+	 */
+	private volatile boolean atomic = false;
+	/**
+	 * the store of the copy progress (null to disable)
+	 */
+	private volatile CopyCheckpoint checkpoint = null;
+	/**
+	 * the limiter of the copies (null to disable)
+	 */
+	private volatile CopyThrottle throttle = null;
+	/**
+	 * the bytes between two progress events of a single file copy
+	 */
+	private volatile long granularity = DEFAULT_PROGRESS_GRANULARITY;
+
+	/**
+	 * the order used to submit the copies
+	 */
+	private volatile Scheduling scheduling = Scheduling.WALK;
+	/**
+	 * files smaller than this are copied in batches (see batchFiles)
+	 */
+	private volatile long batchFileSize = 0;
+	/**
+	 * the max number of files of a batch (1 disables batching)
+	 */
+	private volatile int batchFiles = 1;
+	/**
+	 * the files collected by the {@link Scheduling#LARGEST_FIRST} scheduling
+	 */
+	private final List<Scheduled> pending = Collections
+			.synchronizedList(new ArrayList<Scheduled>());
+	/**
+	 * the batch being filled (guarded by batchLock)
+	 */
+	private List<Scheduled> batch = new ArrayList<Scheduled>();
+	private final Object batchLock = new Object();
+
+	/**
+	 * a collected file waiting to be submitted
+	 */
+	private static final class Scheduled {
+		final File file;
+		final long size;
+		final Progress<String> listener;
+
+		Scheduled(File file, long size, Progress<String> listener) {
+			this.file = file;
+			this.size = size;
+			this.listener = listener;
+		}
+	}
+
+	private static final Comparator<Scheduled> DESCENDING_SIZE = new Comparator<Scheduled>() {
+		public int compare(Scheduled o1, Scheduled o2) {
+			return o1.size > o2.size ? -1 : (o1.size == o2.size ? 0 : 1);
+		}
+	};
+
+	/**
+	 * the options of the copy of each file
+	 */
+	private static final class CopyOptions {
+		boolean incremental;
+		boolean compareContent;
+		String digestAlgorithm;
+		boolean sidecar;
+		boolean atomic;
+		CopyCheckpoint checkpoint;
+		CopyThrottle throttle;
+		long granularity = DEFAULT_PROGRESS_GRANULARITY;
+		/**
+		 * run when the task ends (null for none)
+		 */
+		Runnable done;
+		/**
+		 * set when a copy fails (null for none)
+		 */
+		AtomicBoolean failed;
+		/**
+		 * the submitted tasks are added here (null for none)
+		 */
+		Collection<CopyCall> calls;
+	}
+
+	/**
+	 * A submitted copy task: it is either started by the executor or
+	 * discarded (once canceled) before starting, and in both cases it runs
+	 * {@link CopyOptions#done} exactly once.
+	 */
+	private static abstract class CopyCall implements Callable<File> {
+		private final AtomicBoolean started = new AtomicBoolean();
+
+		private final CopyOptions options;
+
+		CopyCall(final CopyOptions options) {
+			this.options = options;
+		}
+
+		public final File call() throws Exception {
+			if (!started.compareAndSet(false, true))
+				throw new CancellationException("Copy task discarded");
+			try {
+				return copy();
+			} finally {
+				if (options.done != null)
+					options.done.run();
+			}
+		}
+
+		/**
+		 * Prevent a task which is not yet started from running.
+		 * 
+		 * @return true if the task is discarded, false if already started
+		 */
+		final boolean discard() {
+			if (!started.compareAndSet(false, true))
+				return false;
+			try {
+				discarded();
+			} finally {
+				if (options.done != null)
+					options.done.run();
+			}
+			return true;
+		}
+
+		/**
+		 * the copy (run by the executor)
+		 */
+		abstract File copy() throws Exception;
+
+		/**
+		 * called instead of {@link #copy()} when the task is discarded
+		 */
+		abstract void discarded();
+	}
+
+	/**
+	 * submit the call registering it into {@link CopyOptions#calls}
+	 */
+	private static Future<File> submit(final CompletionService<File> cs,
+			final CopyCall call, final CopyOptions options) {
+		final Collection<CopyCall> calls = options.calls;
+		if (calls != null)
+			calls.add(call);
+		try {
+			return cs.submit(call);
+		} catch (RuntimeException e) {
+			if (calls != null)
+				calls.remove(call);
+			throw e;
+		}
+	}
+
+	/**
+	 * true once the collecting operation released its share of
+	 * {@link #running}
+	 */
+	private final AtomicBoolean collectingReleased = new AtomicBoolean();
+
+	/**
+	 * set when a copy fails: the checkpoint is kept
+	 */
+	private final AtomicBoolean copyFailed = new AtomicBoolean();
+
+	/**
+	 * the submitted copy tasks which are not ended, plus one held by the
+	 * collecting operation (released by {@link #handleEnd(Collection)})
+	 */
+	private final AtomicInteger running = new AtomicInteger(1);
+
+	/**
+	 * called by each ended copy task: the last one completes the tree
+	 */
+	private final Runnable taskDone = new Runnable() {
+		public void run() {
+			if (running.decrementAndGet() == 0)
+				copyCompleted();
+		}
+	};
+
+	/**
+	 * release (once) the share of {@link #running} held by the collecting
+	 * operation: called when it ends, also if canceled or failed
+	 */
+	private void releaseCollecting() {
+		if (collectingReleased.compareAndSet(false, true))
+			taskDone.run();
+	}
 
 	/**
 	 * {@link CopyTree#CopyTree(FileFilter, CompletionService, int, File, File)}
@@ -121,6 +401,8 @@ public class CopyTree extends DirectoryWalker<Future<File>> {
 		this.sourceDir = sourceDir;
 		this.destDir = destDir;
 		this.cs = cs;
+		this.filter = filter;
+		this.depthLimit = depth;
 	}
 
 	/**
@@ -155,12 +437,20 @@ public class CopyTree extends DirectoryWalker<Future<File>> {
 	 * used internally to cancel all pending calls
 	 */
 	private void cancelCopyCalls() {
+		// the tasks not yet started will never run: end them here
+		synchronized (calls) {
+			for (CopyCall call : calls) {
+				call.discard();
+			}
+		}
 		// cancel all pending calls
-		final Iterator<Future<File>> it = this.works.iterator();
-		while (it.hasNext()) {
-			Future<File> future = it.next();
-			// cancel the call
-			future.cancel(true);
+		synchronized (works) {
+			final Iterator<Future<File>> it = this.works.iterator();
+			while (it.hasNext()) {
+				Future<File> future = it.next();
+				// cancel the call
+				future.cancel(true);
+			}
 		}
 	}
 
@@ -184,6 +474,170 @@ public class CopyTree extends DirectoryWalker<Future<File>> {
 		return copyProgressList.addListener(listener);
 	}
 
+	/**
+	 * Enable the incremental (rsync like) mode: files whose destination
+	 * already has the same size and modification time are not copied again.
+	 * Must be set before calling {@link #copy()}.
+	 * 
+	 * @param incremental
+	 *            true to skip up to date files
+	 * @param compareContent
+	 *            true to also compare the content of the files with the same
+	 *            size and modification time (this reads both files)
+	 */
+	public void setIncremental(boolean incremental, boolean compareContent) {
+		this.incremental = incremental;
+		this.compareContent = compareContent;
+	}
+
+	/**
+	 * Compute the digest of each copied file while copying it. Must be set
+	 * before calling {@link #copy()}.
+	 * 
+	 * @param algorithm
+	 *            the digest algorithm (see
+	 *            {@link Copy#copyFile(File, File, int, String, boolean)}) or
+	 *            null to disable
+	 * @param sidecar
+	 *            true to write the digest of each file to its sidecar file
+	 * @see Copy#getSidecar(File, String)
+	 */
+	public void setDigest(String algorithm, boolean sidecar) {
+		this.digestAlgorithm = algorithm;
+		this.digestSidecar = sidecar;
+	}
+
+	/**
+	 * Publish each copied file with an atomic rename of a temporary file, so
+	 * readers of the destination tree never see partial files. Must be set
+	 * before calling {@link #copy()}.
+	 * 
+	 * @param atomic
+	 *            true to copy atomically
+	 * @see Copy#copyFileAtomic(File, File, int)
+	 */
+	public void setAtomic(boolean atomic) {
+		this.atomic = atomic;
+	}
+
+	/**
+	 * Resume an interrupted tree copy: files whose copy is recorded as
+	 * completed are skipped and partial files are resumed from the last
+	 * recorded offset. Must be set before calling {@link #copy()}.<br>
+	 * NOTE: partial files are resumed only by the plain copy: with the digest
+	 * or the atomic mode they are copied again (completed files are skipped
+	 * anyway). Once all the copies are ended the checkpoint is cleared if
+	 * they all were successful, otherwise it is saved to resume the failed
+	 * ones.
+	 * 
+	 * @param checkpoint
+	 *            the store of the copy progress or null to disable
+	 * @see Copy#copyFile(File, File, int, CopyCheckpoint)
+	 */
+	public void setCheckpoint(CopyCheckpoint checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Limit the bandwidth and the I/O operations of the copies. The limits of
+	 * the throttle can be changed while copying. Must be set before calling
+	 * {@link #copy()}.
+	 * 
+	 * @param throttle
+	 *            the limiter shared by all the copies or null to disable
+	 */
+	public void setThrottle(CopyThrottle throttle) {
+		this.throttle = throttle;
+	}
+
+	/**
+	 * Set how often the progress of each file copy is reported: the copy
+	 * listeners receive the copied bytes as they are written (see
+	 * {@link TransferProgress}). Must be set before calling {@link #copy()}.
+	 * 
+	 * @param bytes
+	 *            the bytes between two progress events of a single file
+	 *            (default {@value #DEFAULT_PROGRESS_GRANULARITY})
+	 * @throws IllegalArgumentException
+	 *             if bytes is not positive
+	 */
+	public void setProgressGranularity(long bytes) {
+		if (bytes <= 0)
+			throw new IllegalArgumentException("Illegal granularity: " + bytes);
+		this.granularity = bytes;
+	}
+
+	/**
+	 * Set the order used to submit the copies. With
+	 * {@link Scheduling#LARGEST_FIRST} no copy starts before the end of the
+	 * collecting operation (which only reads the size of the files), but the
+	 * biggest files are copied first, so they do not delay the end of the
+	 * whole copy. Must be set before calling {@link #copy()}.
+	 * 
+	 * @param scheduling
+	 *            the scheduling (default {@link Scheduling#WALK})
+	 */
+	public void setScheduling(Scheduling scheduling) {
+		if (scheduling == null)
+			throw new IllegalArgumentException("Invalid null scheduling");
+		this.scheduling = scheduling;
+	}
+
+	/**
+	 * Copy the small files in batches: a single task copies (in sequence) up
+	 * to maxFiles files smaller than smallFileSize, so the per task overhead
+	 * is paid once for the batch. Must be set before calling {@link #copy()}.
+	 * 
+	 * @param smallFileSize
+	 *            the files smaller than this (bytes) are batched
+	 * @param maxFiles
+	 *            the max number of files of a batch (1 to disable batching)
+	 * @throws IllegalArgumentException
+	 *             if maxFiles is less than 1 or smallFileSize is negative
+	 */
+	public void setBatching(long smallFileSize, int maxFiles) {
+		if (smallFileSize < 0 || maxFiles < 1)
+			throw new IllegalArgumentException("Illegal batching: "
+					+ smallFileSize + " bytes, " + maxFiles + " files");
+		this.batchFileSize = smallFileSize;
+		this.batchFiles = maxFiles;
+	}
+
+	/**
+	 * Remove (once the collecting operation is concluded and all the copies
+	 * are ended) all the files and directories under the destination
+	 * directory which do not exist in the source directory, except the
+	 * temporary files of the atomic copies (see {@link Copy#isTempFile(File)}).
+	 * Must be set before calling {@link #copy()}.<br>
+	 * NOTE: the filter is not applied to the destination tree: a destination
+	 * file is an orphan if its source does not exist.
+	 * 
+	 * @param deleteOrphans
+	 *            true to remove orphaned destination files
+	 */
+	public void setDeleteOrphans(boolean deleteOrphans) {
+		this.deleteOrphans = deleteOrphans;
+	}
+
+	/**
+	 * Limit the copy progress events: a progress is notified to the copy
+	 * listeners at most maxEventsPerSecond times per second and only if it
+	 * advanced at least of step percent (the last one is always notified).
+	 * The limits can be changed while copying.
+	 * 
+	 * @param maxEventsPerSecond
+	 *            the max number of events per second (default
+	 *            {@value #DEFAULT_PROGRESS_RATE})
+	 * @param step
+	 *            the min advance in percent (default
+	 *            {@value #DEFAULT_PROGRESS_STEP})
+	 * @throws IllegalArgumentException
+	 *             if maxEventsPerSecond is less than 1 or step is negative
+	 */
+	public void setProgressRate(int maxEventsPerSecond, float step) {
+		copyProgress.setLimits(maxEventsPerSecond, step);
+	}
+
 	/**
 	 * Call reset to clean the object state
 	 * 
@@ -198,7 +652,7 @@ public class CopyTree extends DirectoryWalker<Future<File>> {
 			collectingProgressList.onWarningOccurred("Manually reset called",
 					Thread.currentThread().getName(), "Object reset");
 		}
-		if (copyStarted) {
+		if (copyStarted.get()) {
 			copyProgressList.onWarningOccurred("Manually reset called", Thread
 					.currentThread().getName(), "Object reset");
 		}
@@ -207,7 +661,17 @@ public class CopyTree extends DirectoryWalker<Future<File>> {
 		}
 
 		works.clear();
-		copyStarted = false;
+		running.set(1);
+		collectingReleased.set(false);
+		calls.clear();
+		copyFailed.set(false);
+		pending.clear();
+		synchronized (batchLock) {
+			batch = new ArrayList<Scheduled>();
+		}
+		copyProgress.reset();
+		fakeProgressWarned.set(false);
+		copyStarted.set(false);
 
 		this.collectingCanceled = false;
 		this.copyCanceled = false;
@@ -219,7 +683,8 @@ public class CopyTree extends DirectoryWalker<Future<File>> {
 	 * Copy the entire tree recursively (depending from the passed filter) can
 	 * be interrupted using setCancelled(true)
 	 * 
-	 * @return number of files scheduled for the copy
+	 * @return number of copy tasks scheduled (a batch of small files is a
+	 *         single task, see {@link #setBatching(long, int)})
 	 * @throws IOException
 	 *             {@link DirectoryWalker#walk(File, Collection)}
 	 * @throws IllegalStateException
@@ -227,7 +692,7 @@ public class CopyTree extends DirectoryWalker<Future<File>> {
 	 *             {@link #reset()}
 	 */
 	public synchronized int copy() throws IOException, IllegalStateException {
-		if (copyStarted) {
+		if (copyStarted.get()) {
 			throw new IllegalStateException(
 					"This object is not in a clean state. Please call reset() or use a new CopyTree object.");
 		}
@@ -266,34 +731,117 @@ public class CopyTree extends DirectoryWalker<Future<File>> {
 				LOGGER.error(ioe.getLocalizedMessage(), ioe);
 			}
 		}
+		// the scheduled copies (if any) complete the tree
+		releaseCollecting();
 		return 0;
 	}
 
 	/**
-	 * Synchronized: This is called by all the copy threads modifying members
 	 * 
-	 * @see {@link #copyTotalSize}
-	 * @see {@link #copyProgress}
+	 * Copy the entire tree recursively (depending from the passed filter)
+	 * collecting the files in parallel with a {@link ParallelDirectoryWalker}:
+	 * the sub directories are scanned concurrently and the attributes of each
+	 * file are read only once. Can be interrupted using setCancelled(true)
+	 * 
+	 * @param parallelism
+	 *            the number of threads collecting files (if less than 2 the
+	 *            tree is collected by the calling thread as {@link #copy()}
+	 *            does)
+	 * @return number of copy tasks scheduled (a batch of small files is a
+	 *         single task, see {@link #setBatching(long, int)})
+	 * @throws IOException
+	 *             {@link ParallelDirectoryWalker#walk(File, ParallelDirectoryWalker.Visitor, int)}
+	 * @throws IllegalStateException
+	 *             if CopyTree object is not in a legal state: call
+	 *             {@link #reset()}
 	 */
-	private synchronized void updateProgress(long fileSize) {
-		this.copyProgress += fileSize;
-		/**
-		 * when collecting operation is complete [copyTotalSize means 100%]
-		 */
-		if (collectingCompleted) {
-			// x : 100 = (fileSize+copyProgress) : copyTotalSize
-			copyProgressList.onUpdateProgress(copyProgress * 100
-					/ copyTotalSize);
-		} else {
+	public synchronized int copy(final int parallelism) throws IOException,
+			IllegalStateException {
+		if (parallelism < 2) {
+			return copy();
+		}
+		if (copyStarted.get()) {
+			throw new IllegalStateException(
+					"This object is not in a clean state. Please call reset() or use a new CopyTree object.");
+		}
+		final ParallelDirectoryWalker walker = new ParallelDirectoryWalker(
+				filter, depthLimit);
+		try {
+			handleStart(sourceDir, works);
+			walker.walk(sourceDir, new ParallelDirectoryWalker.Visitor() {
+				public boolean handleDirectory(File directory, int depth) {
+					return true; // process ALL directories
+				}
+
+				public void handleDirectoryContents(File directory, int depth,
+						List<File> children) throws IOException {
+					if (children.isEmpty()) {
+						createEmptyDestDir(directory);
+					}
+				}
+
+				public void handleFile(File file, int depth) {
+					scheduleCopy(file, works);
+				}
+
+				public boolean isCancelled() {
+					return collectingCanceled;
+				}
+			}, parallelism);
+			handleEnd(works);
+
+			return this.works.size();
+
+		} catch (CancelException ioe) {
+			/*
+			 * this happens when the setCancel() is called during the collecting
+			 * operation
+			 */
+
+			// store exception
+			collectingProgressList.onExceptionOccurred(ioe);
+			copyProgressList.onExceptionOccurred(ioe);
+
+			if (LOGGER.isErrorEnabled()) {
+				LOGGER.error(ioe.getLocalizedMessage());
+			}
+
+		} catch (IOException ioe) {
+			// store exception
+			collectingProgressList.onExceptionOccurred(ioe);
+			copyProgressList.onExceptionOccurred(ioe);
+
+			// send cancel event
+			setCancelled();
+
+			// if an I/O Error occurs
+			if (LOGGER.isErrorEnabled()) {
+				LOGGER.error(ioe.getLocalizedMessage(), ioe);
+			}
+		}
+		// the scheduled copies (if any) complete the tree
+		releaseCollecting();
+		return 0;
+	}
+
+	/**
+	 * This is called by all the copy threads while copying and on file
+	 * completion: it does not lock and the copy listeners are notified at a
+	 * limited rate
+	 * 
+	 * @see {@link #setProgressRate(int, float)}
+	 */
+	private void updateProgress(long bytes, long files) {
+		if (!collectingCompleted && !fakeProgressWarned.get()
+				&& fakeProgressWarned.compareAndSet(false, true)) {
 			/*
 			 * fake percent progress still calculating total file size
 			 */
 			copyProgressList.onWarningOccurred("updating process", Thread
 					.currentThread().getName(),
 					"fake % progress still calculating total file size");
-			copyProgressList.onUpdateProgress(copyProgress * 100
-					/ copyTotalSize);
 		}
+		copyProgress.add(bytes, files);
 	}
 
 	/**
@@ -316,57 +864,287 @@ public class CopyTree extends DirectoryWalker<Future<File>> {
 			final File source, final File sourceDir, final File destinationDir,
 			final Progress<String> listener) throws RejectedExecutionException,
 			IllegalArgumentException {
+		return asyncCopyTree(cs, source, sourceDir, destinationDir, listener,
+				new CopyOptions());
+	}
 
-		final Callable<File> call = new Callable<File>() {
-			public File call() throws Exception {
-				try {
-					// build the new path
-					listener.onNewTask("rebase file path");
-					listener.onStart();
-					File destFile = Path.rebaseFile(sourceDir, destinationDir,
-							source);
-					listener.onUpdateProgress(10);
-
-					// try to build the directory tree
-					listener.onNewTask("building directory structure");
-					listener.onStart();
-					if (!destFile.getParentFile().mkdirs()) {
-						listener.onWarningOccurred(
-								this.getClass().getSimpleName(),
-								Thread.currentThread().getName(),
-								"Unable to create the destination directory structure: probably it already exists");
-					}
-					listener.onUpdateProgress(30);
-
-					// start copy
-					listener.onNewTask("copying " + source + " to " + destFile);
-					listener.onStart();
-					FileUtils.copyFile(source, destFile);
-
-					listener.onUpdateProgress(100);
-					listener.onCompleted();
-					// return the rebased and copied file
-					return destFile;
-				} catch (Exception e) {
-					listener.onExceptionOccurred(e);
-					listener.onCancel();
-					throw e;
-				}
+	private static Future<File> asyncCopyTree(final CompletionService<File> cs,
+			final File source, final File sourceDir, final File destinationDir,
+			final Progress<String> listener, final CopyOptions options)
+			throws RejectedExecutionException, IllegalArgumentException {
+
+		final CopyCall call = new CopyCall(options) {
+			File copy() throws Exception {
+				return copyTask(source, sourceDir, destinationDir, listener,
+						options);
+			}
+
+			void discarded() {
+				Metrics.getMetrics().onDequeued();
+				listener.onCancel();
 			}
 		};
+		Metrics.getMetrics().onQueued();
 		try {
-			return cs.submit(call);
+			return submit(cs, call, options);
 		} catch (NullPointerException e) {
+			Metrics.getMetrics().onDequeued();
 			listener.onExceptionOccurred(e);
 			listener.onCancel();
 			throw e;
 		} catch (RejectedExecutionException e) {
+			Metrics.getMetrics().onDequeued();
 			listener.onExceptionOccurred(e);
 			listener.onCancel();
 			throw e;
 		}
 	}
 
+	/**
+	 * submit a single task copying all the files of the batch (in order):
+	 * a failed copy does not stop the others, the first failure is thrown at
+	 * the end of the batch
+	 * 
+	 * @return the future of the last file of the batch
+	 */
+	private static Future<File> asyncCopyBatch(final CompletionService<File> cs,
+			final List<Scheduled> batch, final File sourceDir,
+			final File destinationDir, final CopyOptions options)
+			throws RejectedExecutionException, IllegalArgumentException {
+
+		final CopyCall call = new CopyCall(options) {
+			File copy() throws Exception {
+				return copyBatch(batch, sourceDir, destinationDir, options);
+			}
+
+			void discarded() {
+				for (Scheduled file : batch) {
+					Metrics.getMetrics().onDequeued();
+					file.listener.onCancel();
+				}
+			}
+		};
+		for (int i = 0; i < batch.size(); i++) {
+			Metrics.getMetrics().onQueued();
+		}
+		try {
+			return submit(cs, call, options);
+		} catch (RuntimeException e) {
+			// NullPointerException or RejectedExecutionException
+			for (Scheduled file : batch) {
+				Metrics.getMetrics().onDequeued();
+				file.listener.onExceptionOccurred(e);
+				file.listener.onCancel();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * the copy of a batch of files (run by the executor)
+	 */
+	private static File copyBatch(final List<Scheduled> batch,
+			final File sourceDir, final File destinationDir,
+			final CopyOptions options) throws Exception {
+		Exception failure = null;
+		File destFile = null;
+		for (int i = 0; i < batch.size(); i++) {
+			final Scheduled file = batch.get(i);
+			if (Thread.currentThread().isInterrupted()) {
+				// canceled: the remaining files are not copied
+				for (int j = i; j < batch.size(); j++) {
+					Metrics.getMetrics().onDequeued();
+					batch.get(j).listener.onCancel();
+				}
+				throw new InterruptedException("Batch copy canceled");
+			}
+			try {
+				destFile = copyTask(file.file, sourceDir,
+						destinationDir, file.listener, options);
+			} catch (Exception e) {
+				if (failure == null)
+					failure = e;
+			}
+		}
+		if (failure != null)
+			throw failure;
+		return destFile;
+	}
+
+	/**
+	 * the copy of a single file (run by the executor)
+	 */
+	private static File copyTask(final File source, final File sourceDir,
+			final File destinationDir, final Progress<String> listener,
+			final CopyOptions options) throws Exception {
+		Metrics.getMetrics().onDequeued();
+		try {
+			// build the new path
+			listener.onNewTask("rebase file path");
+			listener.onStart();
+			File destFile = Path.rebaseFile(sourceDir, destinationDir, source);
+
+			if ((options.incremental && isUpToDate(source, destFile,
+					options.compareContent))
+					|| (options.checkpoint != null && options.checkpoint
+							.isCompleted(source, destFile))) {
+				listener.onNewTask("skipping up to date " + destFile);
+				Metrics.getMetrics().onSkipped();
+				listener.onUpdateProgress(100);
+				listener.onCompleted();
+				return destFile;
+			}
+
+			// try to build the directory tree
+			listener.onNewTask("building directory structure");
+			listener.onStart();
+			if (!destFile.getParentFile().mkdirs()) {
+				listener.onWarningOccurred(
+						CopyTree.class.getSimpleName(),
+						Thread.currentThread().getName(),
+						"Unable to create the destination directory structure: probably it already exists");
+			}
+
+			// start copy: the progress is reported while copying
+			listener.onNewTask("copying " + source + " to " + destFile);
+			copyFile(source, destFile, options, new TransferMonitor<String>(
+					listener, options.granularity));
+
+			listener.onCompleted();
+			// return the rebased and copied file
+			return destFile;
+		} catch (Exception e) {
+			if (options.failed != null)
+				options.failed.set(true);
+			listener.onExceptionOccurred(e);
+			listener.onCancel();
+			throw e;
+		}
+	}
+
+	/**
+	 * copy the file preserving its modification time (as
+	 * {@link FileUtils#copyFile(File, File)}, used by the incremental mode)
+	 * reporting the copied bytes to the monitor
+	 */
+	private static void copyFile(final File source, final File destFile,
+			final CopyOptions options, final TransferMonitor<String> monitor)
+			throws IOException {
+		final String digestAlgorithm = options.digestAlgorithm;
+		final CopyCheckpoint checkpoint = options.checkpoint;
+		final CopyThrottle throttle = options.throttle;
+		// small buffers keep the throttled copy smooth
+		final int size = throttle != null ? Conf.getBufferSize()
+				: Conf.DEFAULT_SIZE;
+		if (digestAlgorithm != null) {
+			final CopyResult result = Copy.copyFile(source, destFile, size,
+					digestAlgorithm, options.sidecar, options.atomic, throttle,
+					monitor);
+			if (LOGGER.isDebugEnabled())
+				LOGGER.debug(result.toString());
+		} else if (options.atomic) {
+			Copy.copyFileAtomic(source, destFile, size, throttle, monitor);
+		} else if (checkpoint != null) {
+			// resumed and recorded as completed
+			Copy.copyFile(source, destFile, size, checkpoint, throttle,
+					monitor);
+			destFile.setLastModified(source.lastModified());
+			return;
+		} else {
+			Copy.copyFile(source, destFile, size, throttle, monitor);
+		}
+		destFile.setLastModified(source.lastModified());
+		if (checkpoint != null)
+			checkpoint.setCompleted(source, destFile);
+	}
+
+	/**
+	 * Check if the destination is an up to date copy of the source: both are
+	 * files with the same size and modification time and (optionally) the
+	 * same content.
+	 * 
+	 * @param source
+	 *            the source file
+	 * @param destination
+	 *            the destination file
+	 * @param compareContent
+	 *            if true also compare the content of the files
+	 * @return true if the destination does not need to be copied again
+	 * @throws IOException
+	 *             if the content comparison fails
+	 */
+	public static boolean isUpToDate(final File source, final File destination,
+			final boolean compareContent) throws IOException {
+		if (!destination.isFile())
+			return false;
+		if (source.length() != destination.length()
+				|| source.lastModified() != destination.lastModified())
+			return false;
+		return compareContent ? FileUtils.contentEquals(source, destination)
+				: true;
+	}
+
+	/**
+	 * @return true if the destination file is the digest sidecar (see
+	 *         {@link #setDigest(String, boolean)}) of an existing source file
+	 */
+	private boolean isSidecar(final File file) throws IOException {
+		final String algorithm = digestAlgorithm;
+		if (algorithm == null || !digestSidecar || !file.isFile())
+			return false;
+		final String name = file.getName();
+		final String suffix = Copy.getSidecar(new File(""), algorithm)
+				.getName();
+		if (name.length() <= suffix.length() || !name.endsWith(suffix))
+			return false;
+		final File dest = new File(file.getParentFile(), name.substring(0,
+				name.length() - suffix.length()));
+		if (!Copy.getSidecar(dest, algorithm).equals(file))
+			return false;
+		return Path.rebaseFile(this.destDir, sourceDir, dest).isFile();
+	}
+
+	/**
+	 * Recursively remove the files and directories under destDirectory which
+	 * do not exist (or have a different type) in the source tree.
+	 * 
+	 * @param destDirectory
+	 *            the destination directory to clean
+	 * @return the number of removed files and directories
+	 * @throws IOException
+	 *             if a path cannot be resolved
+	 */
+	private int deleteOrphans(final File destDirectory) throws IOException {
+		final File[] files = destDirectory.listFiles();
+		if (files == null)
+			return 0;
+		int removed = 0;
+		for (File file : files) {
+			if (collectingCanceled)
+				break;
+			if (Copy.isTempFile(file)) {
+				// the temporary file of an atomic copy
+				continue;
+			}
+			final File source = Path.rebaseFile(this.destDir, sourceDir, file);
+			if ((!source.exists() && !isSidecar(file))
+					|| (source.exists() && source.isDirectory() != file.isDirectory())) {
+				if (LOGGER.isInfoEnabled()) {
+					LOGGER.info("Removing orphan: " + file.getAbsolutePath());
+				}
+				if (FileUtils.deleteQuietly(file)) {
+					removed++;
+				} else if (LOGGER.isWarnEnabled()) {
+					LOGGER.warn("Unable to remove orphan: "
+							+ file.getAbsolutePath());
+				}
+			} else if (file.isDirectory()) {
+				removed += deleteOrphans(file);
+			}
+		}
+		return removed;
+	}
+
 	// ////////////////////////////////////////////////////////////////
 	// DirectoryWalker overrides
 	// ////////////////////////////////////////////////////////////////
@@ -414,24 +1192,34 @@ public class CopyTree extends DirectoryWalker<Future<File>> {
 
 		// if directory is empty
 		if (files.length == 0) {
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("Found empty source dir: "
-						+ directory.getAbsolutePath());
-			}
-			final File destDirFile = Path.rebaseFile(sourceDir, this.destDir,
-					directory);
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("Creating empty destination dir: "
+			createEmptyDestDir(directory);
+		}
+		return files;
+	}
+
+	/**
+	 * create the destination of an empty source directory
+	 * 
+	 * @throws IOException
+	 *             if the destination path cannot be resolved
+	 */
+	private void createEmptyDestDir(File directory) throws IOException {
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Found empty source dir: "
+					+ directory.getAbsolutePath());
+		}
+		final File destDirFile = Path.rebaseFile(sourceDir, this.destDir,
+				directory);
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Creating empty destination dir: "
+					+ destDirFile.getAbsolutePath());
+		}
+		if (!destDirFile.mkdirs()) {
+			if (LOGGER.isErrorEnabled()) {
+				LOGGER.error("Unable to create destination dir: "
 						+ destDirFile.getAbsolutePath());
 			}
-			if (!destDirFile.mkdirs()) {
-				if (LOGGER.isErrorEnabled()) {
-					LOGGER.error("Unable to create destination dir: "
-							+ destDirFile.getAbsolutePath());
-				}
-			}
 		}
-		return files;
 	}
 
 	/**
@@ -448,8 +1236,15 @@ public class CopyTree extends DirectoryWalker<Future<File>> {
 	protected void handleFile(File file, int depth,
 			Collection<Future<File>> results) throws IOException,
 			SecurityException {
+		scheduleCopy(file, results);
+	}
+
+	/**
+	 * track the file size and start its copy task
+	 */
+	private void scheduleCopy(final File file, Collection<Future<File>> results) {
 		if (!collectingCanceled) {
-			if (!copyStarted) {
+			if (!copyStarted.get() && copyStarted.compareAndSet(false, true)) {
 				copyProgressList.onStart();
 				copyProgressList.onNewTask("starting copy tree");
 				copyProgressList.onUpdateProgress(0);
@@ -458,11 +1253,34 @@ public class CopyTree extends DirectoryWalker<Future<File>> {
 			final long fileSize = file.length();
 
 			// update total file size to copy
-			this.copyTotalSize += fileSize;
+			copyProgress.addTotal(fileSize);
+
+			// the name is built only if logged
+			Progress<String> listener = new DefaultProgress(FILE_LOGGER) {
+				@Override
+				protected String getName() {
+					return "COPY[" + file.getName() + "]";
+				}
+
+				/**
+				 * the bytes already added to the copy progress (updated by
+				 * the copying thread only)
+				 */
+				private long reported = 0;
+
+				/**
+				 * add the copied bytes to the copy progress while copying
+				 */
+				@Override
+				public void onTransferProgress(long bytes, long total,
+						double bytesPerSecond, long eta) {
+					super.onTransferProgress(bytes, total, bytesPerSecond, eta);
+					if (bytes > reported && bytes <= fileSize) {
+						updateProgress(bytes - reported, 0);
+						reported = bytes;
+					}
+				}
 
-			//
-			Progress<String> listener = new DefaultProgress("COPY["
-					+ file.getName() + "]") {
 				/**
 				 * override default setCompleted call to update progress on file
 				 * copy completion
@@ -470,12 +1288,107 @@ public class CopyTree extends DirectoryWalker<Future<File>> {
 				@Override
 				public void onCompleted() {
 					super.onCompleted();
-					updateProgress(fileSize);
+					updateProgress(fileSize - reported, 1);
 				}
 			};
 
-			// start copy
-			results.add(asyncCopyTree(cs, file, sourceDir, destDir, listener));
+			final Scheduled scheduled = new Scheduled(file, fileSize, listener);
+			if (scheduling == Scheduling.LARGEST_FIRST) {
+				// submitted at the end of the collecting operation
+				pending.add(scheduled);
+			} else {
+				// start copy
+				submit(scheduled, results);
+			}
+		}
+	}
+
+	/**
+	 * @return the options of the copies
+	 */
+	private CopyOptions getOptions() {
+		final CopyOptions options = new CopyOptions();
+		options.incremental = incremental;
+		options.compareContent = compareContent;
+		options.digestAlgorithm = digestAlgorithm;
+		options.sidecar = digestSidecar;
+		options.atomic = atomic;
+		options.checkpoint = checkpoint;
+		options.throttle = throttle;
+		options.granularity = granularity;
+		options.done = taskDone;
+		options.failed = copyFailed;
+		options.calls = calls;
+		return options;
+	}
+
+	/**
+	 * start the copy of the file or add it to the current batch (submitted
+	 * when full)
+	 */
+	private void submit(final Scheduled file, Collection<Future<File>> results) {
+		if (batchFiles > 1 && file.size < batchFileSize) {
+			List<Scheduled> full = null;
+			synchronized (batchLock) {
+				batch.add(file);
+				if (batch.size() >= batchFiles) {
+					full = batch;
+					batch = new ArrayList<Scheduled>();
+				}
+			}
+			if (full != null) {
+				submitBatch(full, results);
+			}
+		} else {
+			running.incrementAndGet();
+			try {
+				results.add(asyncCopyTree(cs, file.file, sourceDir, destDir,
+						file.listener, getOptions()));
+			} catch (RuntimeException e) {
+				// never run
+				running.decrementAndGet();
+				throw e;
+			}
+		}
+	}
+
+	private void submitBatch(List<Scheduled> batch,
+			Collection<Future<File>> results) {
+		running.incrementAndGet();
+		try {
+			results.add(asyncCopyBatch(cs, batch, sourceDir, destDir,
+					getOptions()));
+		} catch (RuntimeException e) {
+			// never run
+			running.decrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * submit the collected files (largest first) and the last batch
+	 */
+	private void submitPending(Collection<Future<File>> results) {
+		final Scheduled[] files;
+		synchronized (pending) {
+			files = pending.toArray(new Scheduled[pending.size()]);
+			pending.clear();
+		}
+		if (files.length > 0) {
+			Arrays.sort(files, DESCENDING_SIZE);
+			for (Scheduled file : files) {
+				if (collectingCanceled)
+					return;
+				submit(file, results);
+			}
+		}
+		final List<Scheduled> last;
+		synchronized (batchLock) {
+			last = batch;
+			batch = new ArrayList<Scheduled>();
+		}
+		if (!last.isEmpty() && !collectingCanceled) {
+			submitBatch(last, results);
 		}
 	}
 
@@ -500,9 +1413,58 @@ public class CopyTree extends DirectoryWalker<Future<File>> {
 	@Override
 	protected void handleEnd(Collection<Future<File>> results)
 			throws IOException {
+		submitPending(results);
 		collectingProgressList.onCompleted();
 		collectingProgressList.onUpdateProgress(100);
 		collectingCompleted = true;
+		if (copyStarted.get()) {
+			// the total is known: the last progress can be notified
+			copyProgress.seal();
+		}
+		// no more copies: the last ended one completes the tree
+		releaseCollecting();
+	}
+
+	/**
+	 * Called (once) when the collecting operation is concluded and all the
+	 * submitted copies are ended, by the thread ending the last one: the
+	 * orphans are removed here, so the temporary files of the running copies
+	 * are never touched, and the checkpoint is cleared (or saved if the tree
+	 * is not completed).
+	 */
+	private void copyCompleted() {
+		final CopyCheckpoint checkpoint = this.checkpoint;
+		if (checkpoint != null) {
+			if (!collectingCanceled && !copyCanceled && !copyFailed.get()) {
+				checkpoint.clear();
+			} else {
+				try {
+					checkpoint.save();
+				} catch (IOException e) {
+					copyProgressList.onExceptionOccurred(e);
+					if (LOGGER.isErrorEnabled()) {
+						LOGGER.error(e.getLocalizedMessage(), e);
+					}
+				}
+			}
+		}
+		if (deleteOrphans && !collectingCanceled && !copyCanceled
+				&& destDir.isDirectory()) {
+			copyProgressList.onNewTask("Removing orphans from: "
+					+ destDir.getAbsolutePath());
+			try {
+				final int removed = deleteOrphans(destDir);
+				if (LOGGER.isInfoEnabled()) {
+					LOGGER.info("Removed " + removed + " orphans from: "
+							+ destDir.getAbsolutePath());
+				}
+			} catch (IOException e) {
+				copyProgressList.onExceptionOccurred(e);
+				if (LOGGER.isErrorEnabled()) {
+					LOGGER.error(e.getLocalizedMessage(), e);
+				}
+			}
+		}
 	}
 
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.io.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The result of a (parallel) tree deletion: the number of deleted entries and
+ * the entries which could not be deleted with the cause.
+ * <p>
+ * Only the first {@link #MAX_FAILURES} failures are retained, all of them are
+ * counted.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ * @see Remove#deleteTree(File, boolean, int)
+ */
+public class DeleteReport {
+
+	/**
+	 * the max number of retained failures
+	 */
+	public static final int MAX_FAILURES = 1000;
+
+	private final File root;
+
+	private final AtomicLong deleted = new AtomicLong();
+
+	private final AtomicInteger failed = new AtomicInteger();
+
+	private final Map<File, IOException> failures = new ConcurrentHashMap<File, IOException>();
+
+	DeleteReport(final File root) {
+		this.root = root;
+	}
+
+	void deleted() {
+		deleted.incrementAndGet();
+	}
+
+	void failed(final File file, final IOException cause) {
+		if (failed.incrementAndGet() <= MAX_FAILURES)
+			failures.put(file, cause);
+	}
+
+	/**
+	 * @return the deleted tree
+	 */
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return the number of deleted files and directories
+	 */
+	public long getDeleted() {
+		return deleted.get();
+	}
+
+	/**
+	 * @return the number of files and directories which could not be deleted
+	 */
+	public int getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return the (first {@link #MAX_FAILURES}) files which could not be
+	 *         deleted with the cause
+	 */
+	public Map<File, IOException> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	/**
+	 * @return true if everything was deleted
+	 */
+	public boolean isSuccessful() {
+		return failed.get() == 0;
+	}
+
+	@Override
+	public String toString() {
+		return "DeleteReport [root=" + root + ", deleted=" + deleted
+				+ ", failed=" + failed + "]";
+	}
+}
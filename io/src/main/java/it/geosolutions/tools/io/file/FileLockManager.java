@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.io.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exclusive file locks shared by the threads of this JVM and by other
+ * processes.
+ * <p>
+ * Threads of this JVM wait for each other on a lock of an in memory table
+ * keyed by canonical path (so the handoff is immediate). The table is split
+ * in stripes, each one guarded by its own monitor, to keep the contention on
+ * unrelated paths low. The lock owner then holds an OS level exclusive
+ * {@link FileLock} on the file: if another process holds it the owner retries
+ * with an exponential backoff (from {@link #MIN_BACKOFF} to
+ * {@link #MAX_BACKOFF} ms).
+ * <p>
+ * Directories cannot be locked at OS level: their lease only holds the in
+ * JVM lock.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * final FileLockManager.Lease lease = FileLockManager.getDefault().acquire(
+ * 		file, 10, TimeUnit.SECONDS);
+ * if (lease != null) {
+ * 	try {
+ * 		// use the file
+ * 	} finally {
+ * 		lease.close();
+ * 	}
+ * }
+ * </pre>
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ */
+public final class FileLockManager {
+
+	private final static Logger LOGGER = LoggerFactory
+			.getLogger(FileLockManager.class);
+
+	/**
+	 * the first wait (ms) for a file locked by another process
+	 */
+	public static final long MIN_BACKOFF = 1;
+
+	/**
+	 * the max wait (ms) for a file locked by another process
+	 */
+	public static final long MAX_BACKOFF = 500;
+
+	private static final int DEFAULT_STRIPES = 64;
+
+	private static final FileLockManager DEFAULT = new FileLockManager(
+			DEFAULT_STRIPES);
+
+	/**
+	 * the in JVM lock of a path
+	 */
+	private static final class Entry {
+		final ReentrantLock lock = new ReentrantLock(true);
+
+		/**
+		 * threads holding or waiting the lock (guarded by the stripe)
+		 */
+		int refs = 0;
+	}
+
+	/**
+	 * An acquired lock: call {@link #close()} to release it.
+	 */
+	public final class Lease implements AutoCloseable {
+		private final File file;
+
+		private final String key;
+
+		private final Entry entry;
+
+		private final FileChannel channel;
+
+		private final FileLock lock;
+
+		private boolean closed = false;
+
+		private Lease(final File file, final String key, final Entry entry,
+				final FileChannel channel, final FileLock lock) {
+			this.file = file;
+			this.key = key;
+			this.entry = entry;
+			this.channel = channel;
+			this.lock = lock;
+		}
+
+		/**
+		 * @return the locked file
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * @return the OS lock (null for directories)
+		 */
+		public FileLock getFileLock() {
+			return lock;
+		}
+
+		/**
+		 * Release the lock (it can be called more than once but only by the
+		 * owner thread).
+		 *
+		 * @throws IOException
+		 *             if the OS lock cannot be released
+		 */
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			try {
+				if (lock != null)
+					lock.release();
+			} finally {
+				try {
+					if (channel != null)
+						channel.close();
+				} finally {
+					entry.lock.unlock();
+					release(key, entry);
+				}
+			}
+		}
+	}
+
+	private final Object[] stripes;
+
+	private final Map<String, Entry>[] tables;
+
+	/**
+	 * @return the shared lock manager
+	 */
+	public static FileLockManager getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @param stripes
+	 *            the number of stripes of the lock table
+	 * @throws IllegalArgumentException
+	 *             if stripes is less than 1
+	 */
+	public FileLockManager(final int stripes) throws IllegalArgumentException {
+		if (stripes < 1)
+			throw new IllegalArgumentException("Stripes must be positive");
+		this.stripes = new Object[stripes];
+		this.tables = newTables(stripes);
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new Object();
+			this.tables[i] = new HashMap<String, Entry>();
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Map<String, Entry>[] newTables(final int length) {
+		return new Map[length];
+	}
+
+	private int stripe(final String key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return (h & 0x7fffffff) % stripes.length;
+	}
+
+	/**
+	 * @return the entry of the path with its references incremented
+	 */
+	private Entry retain(final String key) {
+		final int i = stripe(key);
+		synchronized (stripes[i]) {
+			Entry entry = tables[i].get(key);
+			if (entry == null) {
+				entry = new Entry();
+				tables[i].put(key, entry);
+			}
+			entry.refs++;
+			return entry;
+		}
+	}
+
+	/**
+	 * decrement the references of the entry, removing it when unused
+	 */
+	private void release(final String key, final Entry entry) {
+		final int i = stripe(key);
+		synchronized (stripes[i]) {
+			if (--entry.refs == 0)
+				tables[i].remove(key);
+		}
+	}
+
+	/**
+	 * Try to lock the file without waiting.
+	 *
+	 * @see #acquire(File, long, TimeUnit)
+	 */
+	public Lease tryAcquire(final File file) throws IOException {
+		try {
+			return acquire(file, 0, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * Lock the file waiting at most timeout.
+	 *
+	 * @param file
+	 *            the file (or directory) to lock
+	 * @param timeout
+	 *            the max time to wait
+	 * @param unit
+	 *            the time unit of timeout
+	 * @return the lease or null if the lock is not acquired in time
+	 * @throws NoSuchFileException
+	 *             if the file does not exist
+	 * @throws IOException
+	 *             if the canonical path cannot be resolved
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 * @throws IllegalStateException
+	 *             if the current thread already holds the lock
+	 */
+	public Lease acquire(final File file, final long timeout,
+			final TimeUnit unit) throws IOException, InterruptedException,
+			IllegalStateException {
+		if (!file.exists())
+			throw new NoSuchFileException(file.getAbsolutePath());
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		final String key = file.getCanonicalPath();
+		final Entry entry = retain(key);
+		Lease lease = null;
+		try {
+			if (entry.lock.isHeldByCurrentThread())
+				throw new IllegalStateException(
+						"The lock is already held by the current thread: "
+								+ key);
+			if (!entry.lock.tryLock(timeout, unit))
+				return null;
+			try {
+				if (file.isDirectory()) {
+					lease = new Lease(file, key, entry, null, null);
+				} else {
+					lease = lockFile(file, key, entry, deadline);
+				}
+				return lease;
+			} finally {
+				if (lease == null)
+					entry.lock.unlock();
+			}
+		} finally {
+			if (lease == null)
+				release(key, entry);
+		}
+	}
+
+	/**
+	 * get the OS lock retrying with an exponential backoff
+	 */
+	private Lease lockFile(final File file, final String key,
+			final Entry entry, final long deadline) throws IOException,
+			InterruptedException {
+		long backoff = MIN_BACKOFF;
+		while (true) {
+			FileChannel channel = null;
+			try {
+				channel = FileChannel.open(file.toPath(),
+						StandardOpenOption.WRITE);
+				final FileLock lock = channel.tryLock();
+				if (lock != null) {
+					if (LOGGER.isTraceEnabled())
+						LOGGER.trace("File locked successfully: " + key);
+					final Lease lease = new Lease(file, key, entry, channel,
+							lock);
+					channel = null;
+					return lease;
+				}
+			} catch (NoSuchFileException e) {
+				throw e;
+			} catch (OverlappingFileLockException e) {
+				// locked by this JVM outside of the lock manager
+				if (LOGGER.isDebugEnabled())
+					LOGGER.debug("File is already locked in this virtual machine: "
+							+ key);
+			} catch (IOException e) {
+				// f.e. the file is open by a writer (on windows)
+				if (LOGGER.isDebugEnabled())
+					LOGGER.debug(e.getLocalizedMessage(), e);
+			} finally {
+				if (channel != null)
+					channel.close();
+			}
+
+			final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline
+					- System.nanoTime());
+			if (remaining <= 0)
+				return null;
+			Thread.sleep(Math.min(backoff, remaining));
+			backoff = Math.min(backoff * 2, MAX_BACKOFF);
+		}
+	}
+}
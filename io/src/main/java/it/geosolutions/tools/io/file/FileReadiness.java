@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.io.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Awaits the appearance of many files with a single thread.
+ * <p>
+ * The parent directory of each awaited file is watched with a
+ * {@link WatchService}, so a local file is detected as soon as it is created.
+ * Since remote changes (f.e. on NFS) are not notified, the pending files are
+ * also checked every poll interval by the same thread. The returned futures
+ * are completed by the watcher thread: nobody blocks waiting for a file
+ * unless calling {@link Future#get()}.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ */
+public final class FileReadiness {
+
+	private final static Logger LOGGER = LoggerFactory
+			.getLogger(FileReadiness.class);
+
+	/**
+	 * the default interval (ms) between two checks of the pending files
+	 */
+	public static final long DEFAULT_POLL_INTERVAL = 250;
+
+	private static final FileReadiness DEFAULT = new FileReadiness(
+			DEFAULT_POLL_INTERVAL);
+
+	private static final Callable<File> NOTHING = new Callable<File>() {
+		public File call() throws Exception {
+			return null;
+		}
+	};
+
+	/**
+	 * A future completed by the watcher thread: with the file when it
+	 * appears, with null on timeout.
+	 */
+	static final class ReadyFuture extends FutureTask<File> {
+		private final File file;
+
+		private long deadline;
+
+		ReadyFuture(final File file) {
+			super(NOTHING);
+			this.file = file;
+		}
+
+		void complete(final File value) {
+			set(value);
+		}
+	}
+
+	private final long pollInterval;
+
+	/**
+	 * files waiting to be taken in charge by the watcher thread
+	 */
+	private final Queue<ReadyFuture> requests = new ConcurrentLinkedQueue<ReadyFuture>();
+
+	/**
+	 * the watched directories
+	 */
+	private final Map<Path, WatchKey> keys = new ConcurrentHashMap<Path, WatchKey>();
+
+	/**
+	 * pending files by parent directory (used only by the watcher thread)
+	 */
+	private final Map<Path, List<ReadyFuture>> pending = new HashMap<Path, List<ReadyFuture>>();
+
+	private volatile WatchService watcher;
+
+	private Thread thread;
+
+	/**
+	 * @return the shared instance
+	 */
+	public static FileReadiness getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @param pollInterval
+	 *            the interval (ms) between two checks of the pending files
+	 * @throws IllegalArgumentException
+	 *             if pollInterval is not positive
+	 */
+	public FileReadiness(final long pollInterval)
+			throws IllegalArgumentException {
+		if (pollInterval <= 0)
+			throw new IllegalArgumentException("Illegal poll interval: "
+					+ pollInterval);
+		this.pollInterval = pollInterval;
+	}
+
+	/**
+	 * Await the file.
+	 *
+	 * @param file
+	 *            the awaited file
+	 * @param timeout
+	 *            the max time to wait
+	 * @param unit
+	 *            the timeout unit
+	 * @return a future completed with the file when it exists, with null if
+	 *         it does not appear within timeout
+	 */
+	public Future<File> await(final File file, final long timeout,
+			final TimeUnit unit) {
+		final ReadyFuture future = new ReadyFuture(file);
+		await(future, timeout, unit);
+		return future;
+	}
+
+	/**
+	 * Await the file of the passed future.
+	 */
+	void await(final ReadyFuture future, final long timeout,
+			final TimeUnit unit) {
+		if (future.file.exists()) {
+			future.complete(future.file);
+			return;
+		}
+		future.deadline = System.nanoTime() + unit.toNanos(timeout);
+		try {
+			ensureStarted();
+			watch(parent(future.file));
+		} catch (IOException e) {
+			// the poll will find it
+			if (LOGGER.isDebugEnabled())
+				LOGGER.debug(e.getLocalizedMessage(), e);
+		} catch (ClosedWatchServiceException e) {
+			// shutting down
+			future.cancel(false);
+			return;
+		}
+		requests.add(future);
+		// created while registering
+		if (future.file.exists())
+			future.complete(future.file);
+	}
+
+	private static Path parent(final File file) {
+		return file.getAbsoluteFile().getParentFile().toPath();
+	}
+
+	private synchronized void ensureStarted() throws IOException {
+		if (thread != null)
+			return;
+		watcher = FileSystems.getDefault().newWatchService();
+		thread = new Thread(new Runnable() {
+			public void run() {
+				loop();
+			}
+		}, "FileReadiness");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * register the directory (if it exists)
+	 */
+	private void watch(final Path directory) throws IOException {
+		final WatchService watcher = this.watcher;
+		if (watcher == null)
+			return;
+		final WatchKey key = keys.get(directory);
+		if (key != null && key.isValid())
+			return;
+		if (!directory.toFile().isDirectory())
+			return;
+		keys.put(directory, directory.register(watcher,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY));
+	}
+
+	/**
+	 * Stop the watcher thread: pending futures are cancelled.
+	 */
+	public synchronized void shutdown() {
+		if (thread == null)
+			return;
+		thread.interrupt();
+		try {
+			watcher.close();
+		} catch (IOException e) {
+			if (LOGGER.isDebugEnabled())
+				LOGGER.debug(e.getLocalizedMessage(), e);
+		}
+		thread = null;
+		watcher = null;
+	}
+
+	private void loop() {
+		final WatchService watcher = this.watcher;
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				drainRequests();
+				final WatchKey key = watcher.poll(pollInterval,
+						TimeUnit.MILLISECONDS);
+				if (key != null) {
+					handle(watcher, key);
+				}
+				check();
+			}
+		} catch (InterruptedException e) {
+			// shutdown
+		} catch (ClosedWatchServiceException e) {
+			// shutdown
+		} finally {
+			drainRequests();
+			for (List<ReadyFuture> futures : pending.values()) {
+				for (ReadyFuture future : futures) {
+					future.cancel(false);
+				}
+			}
+			pending.clear();
+			keys.clear();
+		}
+	}
+
+	private void drainRequests() {
+		ReadyFuture future;
+		while ((future = requests.poll()) != null) {
+			if (future.isDone())
+				continue;
+			final Path dir = parent(future.file);
+			List<ReadyFuture> futures = pending.get(dir);
+			if (futures == null) {
+				futures = new ArrayList<ReadyFuture>();
+				pending.put(dir, futures);
+			}
+			futures.add(future);
+		}
+	}
+
+	/**
+	 * complete the futures of the files created in the directory of the key
+	 */
+	private void handle(final WatchService watcher, WatchKey key) {
+		do {
+			final Path dir = (Path) key.watchable();
+			final List<ReadyFuture> futures = pending.get(dir);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (futures == null)
+					continue;
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					// checked by the poll
+					continue;
+				}
+				final Path name = (Path) event.context();
+				final File file = dir.resolve(name).toFile();
+				for (ReadyFuture future : futures) {
+					if (!future.isDone() && future.file.getName().equals(name.toString())
+							&& file.exists()) {
+						future.complete(future.file);
+					}
+				}
+			}
+			key.reset();
+		} while ((key = watcher.poll()) != null);
+	}
+
+	/**
+	 * poll the pending files, expire the timed out ones, stop watching the
+	 * directories without pending files
+	 */
+	private void check() {
+		final long now = System.nanoTime();
+		final Iterator<Map.Entry<Path, List<ReadyFuture>>> dirs = pending
+				.entrySet().iterator();
+		while (dirs.hasNext()) {
+			final Map.Entry<Path, List<ReadyFuture>> entry = dirs.next();
+			final Iterator<ReadyFuture> it = entry.getValue().iterator();
+			while (it.hasNext()) {
+				final ReadyFuture future = it.next();
+				if (future.isDone()) {
+					it.remove();
+				} else if (future.file.exists()) {
+					future.complete(future.file);
+					it.remove();
+				} else if (now - future.deadline >= 0) {
+					if (LOGGER.isDebugEnabled())
+						LOGGER.debug("Timeout waiting for: " + future.file);
+					future.complete(null);
+					it.remove();
+				}
+			}
+			if (entry.getValue().isEmpty()) {
+				dirs.remove();
+				final WatchKey key = keys.remove(entry.getKey());
+				if (key != null)
+					key.cancel();
+			} else {
+				// the directory may have been created in the meanwhile
+				try {
+					watch(entry.getKey());
+				} catch (IOException e) {
+					if (LOGGER.isDebugEnabled())
+						LOGGER.debug(e.getLocalizedMessage(), e);
+				}
+			}
+		}
+	}
+}
@@ -22,26 +22,38 @@ import it.geosolutions.tools.commons.Conf;
 import it.geosolutions.tools.commons.file.Path;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Calendar;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Simple class implementing a Thread that periodically tries to delete the
- * files that were provided to him.
+ * Simple class implementing a Thread that tries to delete the files that were
+ * provided to him.
  * <p>
- * It tries to delete each file at most {@link FileRemover#maxAttempts} number
- * of times. If this number is exceeded it simply throws the file away notifying
- * the users with a warning message.
+ * Each file is scheduled on its own: the first attempt is done as soon as
+ * possible, after each failed attempt the next one is delayed (exponential
+ * backoff) starting from {@link #getPeriod()} seconds up to
+ * {@link Conf#DEF_MAX_BACKOFF} seconds. It tries to delete each file at most
+ * {@link FileRemover#maxAttempts} number of times. If this number is exceeded
+ * it simply throws the file away notifying the users with a warning message.
+ * <p>
+ * Pending files are kept in a {@link DelayQueue} (the same structure used by
+ * the ScheduledThreadPoolExecutor) drained by this thread, so
+ * {@link #addFile(File)} never waits for the deletion of the other files.
+ * <p>
+ * Pending files can survive a restart opening a journal
+ * ({@link #openJournal(File)}): additions and removals are appended to it
+ * and forced to disk in batches by the running remover thread.
  * 
  * @author Simone Giannecchini, GeoSolutions.
  * 
@@ -52,8 +64,73 @@ public final class FileRemover extends Thread {
 	private final static Logger LOGGER = LoggerFactory.getLogger(Path.class
 			.toString());
 
-	private final static Map<String, Integer> FILE_ATTEMPTS_COUNTS = Collections
-			.synchronizedMap(new HashMap<String, Integer>());
+	/**
+	 * A file waiting for its next deletion attempt.
+	 */
+	private static final class PendingFile implements Delayed {
+		private final String path;
+
+		/**
+		 * failed attempts, modified only by the thread which took this file
+		 * from the queue
+		 */
+		private int attempts = 0;
+
+		/**
+		 * time (System.nanoTime()) of the next attempt
+		 */
+		private long time;
+
+		PendingFile(final String path) {
+			this.path = path;
+			this.time = System.nanoTime();
+		}
+
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(time - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		public int compareTo(Delayed o) {
+			if (o == this)
+				return 0;
+			final long diff = (o instanceof PendingFile) ? time
+					- ((PendingFile) o).time : getDelay(TimeUnit.NANOSECONDS)
+					- o.getDelay(TimeUnit.NANOSECONDS);
+			return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+		}
+	}
+
+	/**
+	 * the pending files by absolute path (used to avoid duplicates)
+	 */
+	private final static ConcurrentMap<String, PendingFile> PENDING = new ConcurrentHashMap<String, PendingFile>();
+
+	/**
+	 * the pending files ordered by next attempt time
+	 */
+	private final static DelayQueue<PendingFile> QUEUE = new DelayQueue<PendingFile>();
+
+	/**
+	 * the (optional) journal of the pending files
+	 */
+	private static volatile FileRemoverJournal JOURNAL = null;
+
+	/**
+	 * keep each change of the pending files and its journal record in the
+	 * same order (a path is always guarded by the same stripe)
+	 */
+	private final static Object[] STRIPES = new Object[64];
+	static {
+		for (int i = 0; i < STRIPES.length; i++) {
+			STRIPES[i] = new Object();
+		}
+	}
+
+	private static Object stripe(final String path) {
+		int h = path.hashCode();
+		h ^= (h >>> 16);
+		return STRIPES[(h & 0x7fffffff) % STRIPES.length];
+	}
 
 	/**
 	 * Maximum number of attempts to delete a given {@link File}.
@@ -62,36 +139,64 @@ public final class FileRemover extends Thread {
 	 * If the provided number of attempts is exceeded we simply drop warn the
 	 * user and we remove the {@link File} from our list.
 	 */
-	private int maxAttempts = Conf.DEF_MAX_ATTEMPTS;
+	private volatile int maxAttempts = Conf.DEF_MAX_ATTEMPTS;
 
 	/**
-	 * Period in seconds between two checks.
+	 * Period in seconds between the first two attempts on the same file.
 	 */
 	private volatile long period = Conf.DEFAULT_PERIOD;
 
-	private final static Set<String> FILES_PATH = Collections
-			.synchronizedSet(new HashSet<String>());
-
+	/**
+	 * Collect the directories (direct children of root) not modified in the
+	 * daysAgo days before time.<br>
+	 * NOTE: this scans root at each call, to expire day directories
+	 * repeatedly use a {@link RetentionIndex}.
+	 * 
+	 * @param time
+	 *            the reference time (milliseconds)
+	 * @param daysAgo
+	 *            the number of days
+	 * @param root
+	 *            the directory to scan
+	 * @return the older directories or null if daysAgo is negative (or an
+	 *         error occurs)
+	 */
 	public static List<File> collectOlder(final long time, final int daysAgo,
 			final File root) {
+		return collectOlder(time, daysAgo, root, 1);
+	}
+
+	/**
+	 * Collect the directories (direct children of root) not modified in the
+	 * daysAgo days before time, scanning root with parallelism threads (see
+	 * {@link Collector#collect(File, int)}): the older directories are
+	 * returned in no particular order.
+	 * 
+	 * @param time
+	 *            the reference time (milliseconds)
+	 * @param daysAgo
+	 *            the number of days
+	 * @param root
+	 *            the directory to scan
+	 * @param parallelism
+	 *            the number of threads scanning root
+	 * @return the older directories or null if daysAgo is negative (or an
+	 *         error occurs)
+	 * @see #collectOlder(long, int, File)
+	 */
+	public static List<File> collectOlder(final long time, final int daysAgo,
+			final File root, final int parallelism) {
 		if (daysAgo < 0) {
 			return null;
 		}
 		Calendar cal = Calendar.getInstance();
 		cal.setTimeInMillis(time);
-		int days = cal.get(Calendar.DAY_OF_YEAR);
-		if (days >= daysAgo)
-			cal.set(Calendar.DAY_OF_YEAR, days - daysAgo);
-		else {
-			// TODO use getActualMaximum for days
-			cal.set(Calendar.DAY_OF_YEAR, (354 + (days - daysAgo)));
-			cal.set(Calendar.YEAR, cal.get(Calendar.YEAR) - 1);
-		}
-		// cal.getTime().toString()
+		// rolls the year (with its actual length) when needed
+		cal.add(Calendar.DAY_OF_YEAR, -daysAgo);
 		final Collector coll = new Collector(FileFilterUtils.andFileFilter(
 				FileFilterUtils.directoryFileFilter(),
 				FileFilterUtils.ageFileFilter(cal.getTime(), true)), 1);
-		return coll.collect(root);
+		return coll.collect(root, parallelism);
 	}
 
 	/**
@@ -104,23 +209,132 @@ public final class FileRemover extends Thread {
 		// does it exists
 		if (!fileToDelete.exists())
 			return;
-		synchronized (FILES_PATH) {
-			synchronized (FILE_ATTEMPTS_COUNTS) {
-				// /////////////////////////////////////////////////////////////////
-				//
-				// We add the file to our lists for later check.
-				//
-				// /////////////////////////////////////////////////////////////////
-				if (!FILES_PATH.contains(fileToDelete.getAbsolutePath())) {
-					FILES_PATH.add(fileToDelete.getAbsolutePath());
-					FILE_ATTEMPTS_COUNTS.put(fileToDelete.getAbsolutePath(),
-							new Integer(0));
+		// /////////////////////////////////////////////////////////////////
+		//
+		// We add the file to our lists for later check.
+		//
+		// /////////////////////////////////////////////////////////////////
+		final String path = fileToDelete.getAbsolutePath();
+		final PendingFile pending = new PendingFile(path);
+		synchronized (stripe(path)) {
+			if (PENDING.putIfAbsent(path, pending) != null)
+				return;
+			final FileRemoverJournal journal = JOURNAL;
+			if (journal != null)
+				journal.append(FileRemoverJournal.ADD, path);
+		}
+		QUEUE.offer(pending);
+	}
+
+	/**
+	 * drop the file references
+	 */
+	private static void dispose(final PendingFile pending) {
+		synchronized (stripe(pending.path)) {
+			if (PENDING.remove(pending.path, pending)) {
+				final FileRemoverJournal journal = JOURNAL;
+				if (journal != null)
+					journal.append(FileRemoverJournal.REMOVE, pending.path);
+			}
+		}
+	}
 
+	/**
+	 * Open (creating it if needed) the journal of the pending files and
+	 * schedule the files it lists which still exist. From now on the pending
+	 * files are recorded into the journal.
+	 * 
+	 * @param journalFile
+	 *            the journal
+	 * @return the number of restored pending files
+	 * @throws IOException
+	 *             if the journal cannot be read or written
+	 * @throws IllegalStateException
+	 *             if a journal is already open
+	 */
+	public static synchronized int openJournal(final File journalFile)
+			throws IOException, IllegalStateException {
+		if (JOURNAL != null)
+			throw new IllegalStateException("The journal is already open");
+		final FileRemoverJournal journal = new FileRemoverJournal(journalFile);
+		int restored = 0;
+		try {
+			final Set<String> paths = journal.replay();
+			for (String path : paths) {
+				if (!new File(path).exists())
+					continue;
+				final PendingFile pending = new PendingFile(path);
+				if (PENDING.putIfAbsent(path, pending) == null) {
+					QUEUE.offer(pending);
+					restored++;
 				}
 			}
+			// also drops the removed and no more existing files
+			journal.compact(PENDING.keySet());
+		} catch (IOException e) {
+			journal.close();
+			throw e;
+		}
+		JOURNAL = journal;
+		if (LOGGER.isInfoEnabled())
+			LOGGER.info("Restored " + restored + " pending files from: "
+					+ journalFile);
+		return restored;
+	}
+
+	/**
+	 * Force the pending records to disk and close the journal (if open).
+	 * 
+	 * @throws IOException
+	 *             if the journal cannot be written
+	 */
+	public static synchronized void closeJournal() throws IOException {
+		final FileRemoverJournal journal = JOURNAL;
+		if (journal != null) {
+			JOURNAL = null;
+			journal.close();
+		}
+	}
+
+	/**
+	 * write the batched records and compact the journal when needed
+	 */
+	private static void syncJournal() {
+		final FileRemoverJournal journal = JOURNAL;
+		if (journal == null)
+			return;
+		try {
+			journal.maybeSync();
+			if (journal.needsCompaction(PENDING.size()))
+				journal.compact(PENDING.keySet());
+		} catch (IOException e) {
+			if (LOGGER.isWarnEnabled())
+				LOGGER.warn("Unable to write the journal: "
+						+ e.getLocalizedMessage(), e);
 		}
 	}
 
+	/**
+	 * @return the number of files waiting to be deleted
+	 */
+	public static int getPendingCount() {
+		return PENDING.size();
+	}
+
+	/**
+	 * Close the journal (if open) and forget all the pending files, which are
+	 * not deleted: the pending files are shared by all the removers, so call
+	 * it once they are all stopped (see {@link #shutdown()}).
+	 * 
+	 * @throws IOException
+	 *             if the journal cannot be written
+	 */
+	public static synchronized void reset() throws IOException {
+		closeJournal();
+		QUEUE.clear();
+		PENDING.clear();
+	}
+
 	/**
 	 * Default constructor for a {@link FileRemover}.
 	 */
@@ -152,88 +366,95 @@ public final class FileRemover extends Thread {
 	 * This method does the magic:
 	 * 
 	 * <ol>
-	 * <li>iterate over all the files</li>
+	 * <li>wait for the next file to try</li>
 	 * <li>try to delete it</li>
 	 * <li>if successful drop the file references</li>
-	 * <li>if not successful increase the attempts count for the file and call
-	 * the gc. If the maximum number was exceeded drop the file and warn the
-	 * user</li>
-	 * 
+	 * <li>if not successful increase the attempts count for the file and
+	 * schedule the next attempt doubling the delay. If the maximum number was
+	 * exceeded drop the file and warn the user</li>
+	 * </ol>
+	 * The loop ends when this thread is interrupted.
 	 */
 	public void run() {
 		while (true) {
+			final PendingFile pending;
 			try {
-				synchronized (FILES_PATH) {
-					synchronized (FILE_ATTEMPTS_COUNTS) {
-
-						final Iterator<String> it = FILES_PATH.iterator();
-						while (it.hasNext()) {
-
-							// get next file path and its count
-							final String sFile = it.next();
-							if (LOGGER.isInfoEnabled())
-								LOGGER.info("Trying to remove file " + sFile);
-							int attempts = FILE_ATTEMPTS_COUNTS.get(sFile)
-									.intValue();
-							if (!new File(sFile).exists()) {
-								it.remove();
-								FILE_ATTEMPTS_COUNTS.remove(sFile);
-							} else {
-								// try to delete it
-								if (new File(sFile).delete()) {
-									if (LOGGER.isInfoEnabled())
-										LOGGER.info("Successfully removed file "
-												+ sFile);
-									it.remove();
-									FILE_ATTEMPTS_COUNTS.remove(sFile);
-								} else {
-									if (LOGGER.isInfoEnabled())
-										LOGGER.info("Unable to  remove file "
-												+ sFile);
-									attempts++;
-									if (maxAttempts < attempts) {
-										if (LOGGER.isInfoEnabled())
-											LOGGER.info("Dropping file "
-													+ sFile);
-										it.remove();
-										FILE_ATTEMPTS_COUNTS.remove(sFile);
-										if (LOGGER.isWarnEnabled())
-											LOGGER.warn("Unable to delete file "
-													+ sFile);
-									} else {
-										FILE_ATTEMPTS_COUNTS.remove(sFile);
-										FILE_ATTEMPTS_COUNTS.put(sFile,
-												new Integer(attempts));
-										// might help, see
-										// http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4715154
-										Runtime.getRuntime().gc();
-										Runtime.getRuntime().gc();
-										Runtime.getRuntime().gc();
-										Runtime.getRuntime().gc();
-										Runtime.getRuntime().gc();
-										Runtime.getRuntime().gc();
-										System.runFinalization();
-										System.runFinalization();
-										System.runFinalization();
-										System.runFinalization();
-										System.runFinalization();
-										System.runFinalization();
-
-									}
-								}
-							}
-						}
-					}
+				// wake up at least once per sync interval to write the journal
+				pending = QUEUE.poll(FileRemoverJournal.SYNC_INTERVAL,
+						TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (pending != null) {
+				try {
+					attempt(pending);
+				} catch (Throwable t) {
+					if (LOGGER.isInfoEnabled())
+						LOGGER.info(t.getLocalizedMessage(), t);
+					// do not lose the file
+					reschedule(pending);
 				}
-				Thread.sleep(period * 1000);
+			}
+			syncJournal();
+		}
+	}
 
-			} catch (Throwable t) {
+	/**
+	 * Stop this remover and wait for its thread to end (the pending files are
+	 * kept).
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public void shutdown() throws InterruptedException {
+		interrupt();
+		join();
+	}
+
+	/**
+	 * try to delete the file rescheduling it on failure
+	 */
+	private void attempt(final PendingFile pending) {
+		final String sFile = pending.path;
+		if (LOGGER.isInfoEnabled())
+			LOGGER.info("Trying to remove file " + sFile);
+		final File file = new File(sFile);
+		if (!file.exists()) {
+			dispose(pending);
+		} else if (file.delete()) {
+			// try to delete it
+			if (LOGGER.isInfoEnabled())
+				LOGGER.info("Successfully removed file " + sFile);
+			dispose(pending);
+		} else {
+			if (LOGGER.isInfoEnabled())
+				LOGGER.info("Unable to  remove file " + sFile);
+			pending.attempts++;
+			if (maxAttempts < pending.attempts) {
 				if (LOGGER.isInfoEnabled())
-					LOGGER.info(t.getLocalizedMessage(), t);
+					LOGGER.info("Dropping file " + sFile);
+				dispose(pending);
+				if (LOGGER.isWarnEnabled())
+					LOGGER.warn("Unable to delete file " + sFile);
+			} else {
+				reschedule(pending);
 			}
 		}
 	}
 
+	/**
+	 * schedule the next attempt: period * 2^(attempts-1) seconds (at most
+	 * {@link Conf#DEF_MAX_BACKOFF})
+	 */
+	private void reschedule(final PendingFile pending) {
+		final int shift = Math.min(Math.max(pending.attempts - 1, 0), 30);
+		final long delay = Math.min(Math.max(period, 1L) << shift,
+				Math.max(period, Conf.DEF_MAX_BACKOFF));
+		pending.time = System.nanoTime() + TimeUnit.SECONDS.toNanos(delay);
+		QUEUE.offer(pending);
+	}
+
 	/**
 	 * Retrieves the maximum number of times we try to delete a file before
 	 * giving up.
@@ -243,12 +464,7 @@ public final class FileRemover extends Thread {
 	 * 
 	 */
 	public int getMaxAttempts() {
-		synchronized (FILES_PATH) {
-			synchronized (FILE_ATTEMPTS_COUNTS) {
-				return maxAttempts;
-			}
-		}
-
+		return maxAttempts;
 	}
 
 	/**
@@ -261,16 +477,12 @@ public final class FileRemover extends Thread {
 	 * 
 	 */
 	public void setMaxAttempts(int maxAttempts) {
-		synchronized (FILES_PATH) {
-			synchronized (FILE_ATTEMPTS_COUNTS) {
-				this.maxAttempts = maxAttempts;
-			}
-		}
-
+		this.maxAttempts = maxAttempts;
 	}
 
 	/**
-	 * Retrieves the period in seconds for this {@link FileRemover} .
+	 * Retrieves the period in seconds for this {@link FileRemover}: the delay
+	 * after the first failed attempt on a file.
 	 * 
 	 * @return the period in seconds for this {@link FileRemover} .
 	 * 
@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.io.file;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the files pending deletion in the
+ * {@link FileRemover}.
+ * <p>
+ * Each record is: type (1 byte), path length (4 bytes), path (UTF-8), CRC32
+ * of the previous fields (4 bytes). Records are buffered in memory and
+ * written and forced to disk in batches ({@link #maybeSync()}), so a crash
+ * can lose only the last {@link #SYNC_INTERVAL} ms of records. A torn or
+ * corrupted tail is detected by {@link #replay()} and truncated.
+ * <p>
+ * The journal is compacted rewriting only the pending files into a temporary
+ * file which atomically replaces the journal.
+ * <p>
+ * Appending a record only locks the in memory batch: writes, forces and
+ * compactions are serialized by a different lock, so the producers never
+ * wait for the disk.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ */
+final class FileRemoverJournal implements Closeable {
+
+	private final static Logger LOGGER = LoggerFactory
+			.getLogger(FileRemoverJournal.class);
+
+	/**
+	 * a file to delete
+	 */
+	static final byte ADD = 'A';
+
+	/**
+	 * a file removed (or dropped)
+	 */
+	static final byte REMOVE = 'R';
+
+	/**
+	 * max time (in milliseconds) records stay in memory
+	 */
+	static final long SYNC_INTERVAL = 1000;
+
+	/**
+	 * compact only journals with at least this number of records
+	 */
+	static final int COMPACT_MIN_RECORDS = 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// longer paths are considered corrupted records
+	private static final int MAX_PATH_LENGTH = 64 * 1024;
+
+	private final File file;
+
+	/**
+	 * serializes the I/O on the journal (the batch is guarded by this)
+	 */
+	private final Object ioLock = new Object();
+
+	private RandomAccessFile raf;
+
+	private FileChannel channel;
+
+	private final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+
+	private final DataOutputStream out = new DataOutputStream(batch);
+
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * the number of records in the journal (written or not)
+	 */
+	private int records = 0;
+
+	private long lastSync = System.currentTimeMillis();
+
+	/**
+	 * @param file
+	 *            the journal file (created if it does not exist)
+	 * @throws IOException
+	 *             if the journal cannot be opened
+	 */
+	FileRemoverJournal(final File file) throws IOException {
+		this.file = file;
+		open();
+	}
+
+	private void open() throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+	}
+
+	/**
+	 * Read the journal truncating a torn tail.
+	 *
+	 * @return the paths added and not removed, in insertion order
+	 * @throws IOException
+	 *             if the journal cannot be read
+	 */
+	Set<String> replay() throws IOException {
+		synchronized (ioLock) {
+			synchronized (this) {
+				return replayJournal();
+			}
+		}
+	}
+
+	private Set<String> replayJournal() throws IOException {
+		final Set<String> pending = new LinkedHashSet<String>();
+		long valid = 0;
+		int count = 0;
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			while (true) {
+				final int type = in.read();
+				if (type < 0)
+					break;
+				final int length = in.readInt();
+				if ((type != ADD && type != REMOVE) || length < 0
+						|| length > MAX_PATH_LENGTH) {
+					throw new IOException("Corrupted record");
+				}
+				final byte[] path = new byte[length];
+				in.readFully(path);
+				final int checksum = in.readInt();
+				if (checksum != checksum((byte) type, path)) {
+					throw new IOException("Bad record checksum");
+				}
+				final String sPath = new String(path, UTF8);
+				if (type == ADD) {
+					pending.add(sPath);
+				} else {
+					pending.remove(sPath);
+				}
+				valid += 1 + 4 + length + 4;
+				count++;
+			}
+		} catch (EOFException e) {
+			if (LOGGER.isWarnEnabled())
+				LOGGER.warn("Truncated record in journal " + file
+						+ " at offset " + valid);
+		} catch (IOException e) {
+			if (LOGGER.isWarnEnabled())
+				LOGGER.warn(e.getLocalizedMessage() + " in journal " + file
+						+ " at offset " + valid);
+		} finally {
+			in.close();
+		}
+		if (channel.size() > valid) {
+			channel.truncate(valid);
+			channel.force(false);
+		}
+		channel.position(valid);
+		records = count;
+		return pending;
+	}
+
+	private int checksum(final byte type, final byte[] path) {
+		crc.reset();
+		crc.update(type);
+		crc.update(length(path.length));
+		crc.update(path);
+		return (int) crc.getValue();
+	}
+
+	private static byte[] length(final int length) {
+		return new byte[] { (byte) (length >>> 24), (byte) (length >>> 16),
+				(byte) (length >>> 8), (byte) length };
+	}
+
+	/**
+	 * Append a record to the in memory batch.
+	 *
+	 * @param type
+	 *            {@link #ADD} or {@link #REMOVE}
+	 * @param path
+	 *            the absolute path of the file
+	 */
+	synchronized void append(final byte type, final String path) {
+		final byte[] bytes = path.getBytes(UTF8);
+		try {
+			out.writeByte(type);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.writeInt(checksum(type, bytes));
+		} catch (IOException e) {
+			// never thrown by a ByteArrayOutputStream
+			throw new IllegalStateException(e);
+		}
+		records++;
+	}
+
+	/**
+	 * Write and force the batched records if the last sync is older than
+	 * {@link #SYNC_INTERVAL}.
+	 *
+	 * @throws IOException
+	 *             if the records cannot be written
+	 */
+	void maybeSync() throws IOException {
+		synchronized (ioLock) {
+			if (batch.size() > 0
+					&& System.currentTimeMillis() - lastSync >= SYNC_INTERVAL) {
+				sync();
+			}
+		}
+	}
+
+	/**
+	 * @return the batched records, removed from the batch
+	 */
+	private synchronized byte[] drain() {
+		final byte[] bytes = batch.toByteArray();
+		batch.reset();
+		return bytes;
+	}
+
+	/**
+	 * put back the drained records ahead of the ones batched meanwhile
+	 */
+	private synchronized void restore(final byte[] bytes) {
+		final byte[] newer = batch.toByteArray();
+		batch.reset();
+		batch.write(bytes, 0, bytes.length);
+		batch.write(newer, 0, newer.length);
+	}
+
+	/**
+	 * Write and force the batched records.
+	 *
+	 * @throws IOException
+	 *             if the records cannot be written
+	 */
+	void sync() throws IOException {
+		synchronized (ioLock) {
+			final byte[] bytes = drain();
+			if (bytes.length > 0) {
+				final long start = channel.position();
+				try {
+					final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+					while (buffer.hasRemaining()) {
+						channel.write(buffer);
+					}
+					channel.force(false);
+				} catch (IOException e) {
+					// rewrite them at the next sync
+					try {
+						channel.position(start);
+					} catch (IOException ioe) {
+						// the channel is broken
+					}
+					restore(bytes);
+					throw e;
+				}
+			}
+			lastSync = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * @param live
+	 *            the number of pending files
+	 * @return true if most of the records are obsolete
+	 */
+	synchronized boolean needsCompaction(final int live) {
+		return records >= COMPACT_MIN_RECORDS && records > 2 * live;
+	}
+
+	/**
+	 * Replace the journal with one holding only the passed paths.
+	 *
+	 * @param pending
+	 *            the files still pending
+	 * @throws IOException
+	 *             if the journal cannot be rewritten (the old one is kept)
+	 */
+	void compact(final Collection<String> pending) throws IOException {
+		synchronized (ioLock) {
+			compactJournal(pending);
+		}
+	}
+
+	private void compactJournal(final Collection<String> pending)
+			throws IOException {
+		// the pending files are updated before appending their records: the
+		// records batched so far are reflected by the pending files (read
+		// after this point), the ones appended from now on are kept
+		final byte[] obsolete;
+		final int obsoleteRecords;
+		synchronized (this) {
+			obsolete = drain();
+			obsoleteRecords = records;
+		}
+		final File tmp = new File(file.getPath() + ".tmp");
+		boolean moved = false;
+		int written = 0;
+		try {
+			final FileRemoverJournal compacted = new FileRemoverJournal(tmp);
+			try {
+				compacted.channel.truncate(0);
+				for (String path : pending) {
+					compacted.append(ADD, path);
+					written++;
+				}
+				compacted.sync();
+			} finally {
+				compacted.close();
+			}
+			// closed to be replaced (f.e. on windows)
+			channel.close();
+			raf.close();
+			try {
+				Files.move(tmp.toPath(), file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+				moved = true;
+			} finally {
+				// reopen the compacted journal or (on failure) the old one
+				open();
+				channel.position(channel.size());
+			}
+		} finally {
+			if (moved) {
+				synchronized (this) {
+					records = written + records - obsoleteRecords;
+				}
+			} else {
+				// keep the records still to write into the old journal
+				restore(obsolete);
+				tmp.delete();
+			}
+		}
+		if (LOGGER.isInfoEnabled())
+			LOGGER.info("Compacted journal " + file + ": " + written
+					+ " pending files");
+	}
+
+	/**
+	 * Sync and close the journal.
+	 */
+	public void close() throws IOException {
+		synchronized (ioLock) {
+			try {
+				sync();
+			} finally {
+				channel.close();
+				raf.close();
+			}
+		}
+	}
+}
@@ -21,20 +21,28 @@ package it.geosolutions.tools.io.file;
 
 import it.geosolutions.tools.commons.Conf;
 import it.geosolutions.tools.commons.check.Objects;
+import it.geosolutions.tools.commons.listener.TransferMonitor;
+import it.geosolutions.tools.io.buffer.ByteBufferPool;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
-import java.nio.channels.OverlappingFileLockException;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -87,19 +95,24 @@ public final class IOUtils extends org.apache.commons.io.IOUtils {
 			throw new IllegalStateException(
 					"Source and destination channels must be open.");
 
-		final java.nio.ByteBuffer buffer = java.nio.ByteBuffer
-				.allocateDirect(bufferSize);
-		while (source.read(buffer) != -1) {
-			// prepare the buffer for draining
-			buffer.flip();
+		final ByteBufferPool pool = ByteBufferPool.getDirectPool();
+		final ByteBuffer buffer = pool.acquire(bufferSize);
+		try {
+			while (source.read(buffer) != -1) {
+				// prepare the buffer for draining
+				buffer.flip();
 
-			// write to destination
-			while (buffer.hasRemaining())
-				destination.write(buffer);
+				// write to destination
+				while (buffer.hasRemaining())
+					destination.write(buffer);
 
-			// clear
-			buffer.clear();
+				// clear (the pooled buffer may be bigger than bufferSize)
+				buffer.clear();
+				buffer.limit(bufferSize);
 
+			}
+		} finally {
+			pool.release(buffer);
 		}
 
 	}
@@ -115,31 +128,250 @@ public final class IOUtils extends org.apache.commons.io.IOUtils {
 	 *            the destination {@link WritableByteChannel};.
 	 * @throws IOException
 	 *             in case something bad happens.
+	 * @see #copyFileChannel(int, FileChannel, FileChannel, boolean)
 	 */
 	public static void copyFileChannel(int bufferSize, FileChannel source,
 			FileChannel destination) throws IOException {
+		copyFileChannel(bufferSize, source, destination, false);
+	}
+
+	/**
+	 * Zero-copy version of copy method for file channels.
+	 * <p>
+	 * The whole source channel (from position 0) is transferred onto the
+	 * destination channel (from position 0) using
+	 * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which
+	 * lets the OS move the bytes (sendfile/copy_file_range on Linux) without
+	 * bringing them into the JVM. Each transfer is repeated until the bytes
+	 * actually transferred reach the requested slice, the destination is then
+	 * truncated to the source size.
+	 * 
+	 * @param bufferSize
+	 *            the max number of bytes to transfer with a single call (and
+	 *            the size of the locked region if regionLock is true).
+	 * @param source
+	 *            the source {@link FileChannel}.
+	 * @param destination
+	 *            the destination {@link FileChannel}.
+	 * @param regionLock
+	 *            if true only the region currently being written is locked,
+	 *            otherwise an exclusive lock on the whole destination file is
+	 *            held for the entire copy.
+	 * @return the number of transferred bytes.
+	 * @throws IOException
+	 *             in case something bad happens or if the source cannot be
+	 *             completely transferred (f.e. it has been truncated).
+	 */
+	public static long copyFileChannel(int bufferSize, FileChannel source,
+			FileChannel destination, boolean regionLock) throws IOException {
+		return copyFileChannel(bufferSize, source, destination, regionLock,
+				null);
+	}
+
+	/**
+	 * Zero-copy version of copy method for file channels reporting the
+	 * transferred bytes (every transfer moves at most bufferSize bytes).
+	 * 
+	 * @param monitor
+	 *            the monitor of the transferred bytes or null
+	 * @see #copyFileChannel(int, FileChannel, FileChannel, boolean)
+	 */
+	public static long copyFileChannel(int bufferSize, FileChannel source,
+			FileChannel destination, boolean regionLock,
+			TransferMonitor<?> monitor) throws IOException {
 
 		Objects.notNull(source, destination);
 		if (!source.isOpen() || !destination.isOpen())
 			throw new IllegalStateException(
 					"Source and destination channels must be open.");
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("Illegal buffer size: "
+					+ bufferSize);
+		final long start = System.currentTimeMillis();
 		FileLock lock = null;
 		try {
+			if (!regionLock)
+				lock = destination.lock();
 
-			lock = destination.lock();
 			final long sourceSize = source.size();
 			long pos = 0;
+			destination.position(0);
+			if (monitor != null)
+				monitor.start(sourceSize, 0);
 			while (pos < sourceSize) {
-				// read and flip
 				final long remaining = (sourceSize - pos);
-				final int mappedZoneSize = remaining >= bufferSize ? bufferSize
-						: (int) remaining;
-				destination.transferFrom(source, pos, mappedZoneSize);
-				// update zone
-				pos += mappedZoneSize;
+				final long sliceSize = remaining >= bufferSize ? bufferSize
+						: remaining;
+				FileLock region = null;
+				try {
+					if (regionLock)
+						region = destination.lock(pos, sliceSize, false);
+					// loop until the whole slice is transferred
+					final long sliceEnd = pos + sliceSize;
+					while (pos < sliceEnd) {
+						final long transferred = source.transferTo(pos,
+								sliceEnd - pos, destination);
+						if (transferred <= 0) {
+							throw new IOException("Unable to transfer bytes at position "
+									+ pos + " of " + sourceSize
+									+ ": the source may have been truncated.");
+						}
+						pos += transferred;
+						if (monitor != null)
+							monitor.transferred(transferred);
+					}
+				} finally {
+					if (region != null) {
+						try {
+							region.release();
+						} catch (Throwable t) {
+							if (LOGGER.isInfoEnabled())
+								LOGGER.info(t.getLocalizedMessage(), t);
+						}
+					}
+				}
+			}
+			// remove stale bytes if the destination was bigger
+			if (destination.size() > sourceSize)
+				destination.truncate(sourceSize);
+			if (monitor != null)
+				monitor.completed();
+
+			if (LOGGER.isDebugEnabled()) {
+				final long elapsed = System.currentTimeMillis() - start;
+				LOGGER.debug("Transferred " + pos + " bytes in " + elapsed
+						+ "ms (" + (elapsed > 0 ? pos * 1000 / elapsed : pos)
+						+ " bytes/s)");
+			}
+			return pos;
+		} finally {
+			if (lock != null) {
+				try {
+					lock.release();
+				} catch (Throwable t) {
+					if (LOGGER.isInfoEnabled())
+						LOGGER.info(t.getLocalizedMessage(), t);
+				}
+			}
+
+		}
+	}
 
+	/**
+	 * Copy the source channel onto the destination one (from position 0)
+	 * updating the passed digest with the copied bytes, so the digest of the
+	 * copy costs no additional read of the file.
+	 * <p>
+	 * The bytes move through a pooled direct buffer using positional reads;
+	 * the destination is locked during the copy and truncated to the source
+	 * size.
+	 * 
+	 * @param bufferSize
+	 *            the size of the buffer
+	 * @param source
+	 *            the channel to copy from
+	 * @param destination
+	 *            the channel to copy to
+	 * @param digest
+	 *            the digest to update (see {@link #getDigest(String)})
+	 * @return the number of copied bytes
+	 * @throws IOException
+	 *             in case something bad happens
+	 */
+	public static long copyFileChannel(int bufferSize, FileChannel source,
+			FileChannel destination, MessageDigest digest) throws IOException {
+		Objects.notNull(digest);
+		return copyFileChannel(bufferSize, source, destination, digest, null);
+	}
+
+	/**
+	 * Copy the source channel onto the destination one (from position 0)
+	 * optionally updating the passed digest and limiting the throughput.
+	 * 
+	 * @param bufferSize
+	 *            the size of the buffer (the bytes of each throttled
+	 *            operation)
+	 * @param source
+	 *            the channel to copy from
+	 * @param destination
+	 *            the channel to copy to
+	 * @param digest
+	 *            the digest to update or null
+	 * @param throttle
+	 *            the limiter of the copy or null
+	 * @return the number of copied bytes
+	 * @throws IOException
+	 *             in case something bad happens
+	 * @see #copyFileChannel(int, FileChannel, FileChannel, MessageDigest)
+	 */
+	public static long copyFileChannel(int bufferSize, FileChannel source,
+			FileChannel destination, MessageDigest digest,
+			CopyThrottle throttle) throws IOException {
+		return copyFileChannel(bufferSize, source, destination, digest,
+				throttle, null);
+	}
+
+	/**
+	 * Copy the source channel onto the destination one (from position 0)
+	 * optionally updating the passed digest, limiting the throughput and
+	 * reporting the copied bytes (every buffer).
+	 * 
+	 * @param monitor
+	 *            the monitor of the copied bytes or null
+	 * @see #copyFileChannel(int, FileChannel, FileChannel, MessageDigest,
+	 *      CopyThrottle)
+	 */
+	public static long copyFileChannel(int bufferSize, FileChannel source,
+			FileChannel destination, MessageDigest digest,
+			CopyThrottle throttle, TransferMonitor<?> monitor)
+			throws IOException {
+
+		Objects.notNull(source, destination);
+		if (!source.isOpen() || !destination.isOpen())
+			throw new IllegalStateException(
+					"Source and destination channels must be open.");
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("Illegal buffer size: "
+					+ bufferSize);
+		final ByteBufferPool pool = ByteBufferPool.getDirectPool();
+		final ByteBuffer buffer = pool.acquire(bufferSize);
+		FileLock lock = null;
+		try {
+			lock = destination.lock();
+			final long sourceSize = source.size();
+			long pos = 0;
+			if (monitor != null)
+				monitor.start(sourceSize, 0);
+			while (pos < sourceSize) {
+				buffer.clear();
+				buffer.limit((int) Math.min(bufferSize, sourceSize - pos));
+				if (throttle != null)
+					throttle.acquire(buffer.limit());
+				final int read = source.read(buffer, pos);
+				if (read <= 0) {
+					throw new IOException("Unable to read bytes at position "
+							+ pos + " of " + sourceSize
+							+ ": the source may have been truncated.");
+				}
+				buffer.flip();
+				if (digest != null) {
+					digest.update(buffer);
+					buffer.rewind();
+				}
+				while (buffer.hasRemaining()) {
+					pos += destination.write(buffer, pos);
+				}
+				if (monitor != null)
+					monitor.transferred(buffer.limit());
 			}
+			// remove stale bytes if the destination was bigger
+			if (destination.size() > sourceSize)
+				destination.truncate(sourceSize);
+			if (monitor != null)
+				monitor.completed();
+			return pos;
 		} finally {
+			pool.release(buffer);
 			if (lock != null) {
 				try {
 					lock.release();
@@ -148,7 +380,74 @@ public final class IOUtils extends org.apache.commons.io.IOUtils {
 						LOGGER.info(t.getLocalizedMessage(), t);
 				}
 			}
+		}
+	}
 
+	/**
+	 * @param algorithm
+	 *            "CRC32" or the name of a {@link MessageDigest} algorithm
+	 *            (f.e. "SHA-256", "MD5")
+	 * @return a new digest (the CRC32 one is 4 bytes, big endian)
+	 * @throws NoSuchAlgorithmException
+	 *             if the algorithm is not available
+	 */
+	public static MessageDigest getDigest(String algorithm)
+			throws NoSuchAlgorithmException {
+		if (CRC32Digest.ALGORITHM.equalsIgnoreCase(algorithm))
+			return new CRC32Digest();
+		return MessageDigest.getInstance(algorithm);
+	}
+
+	/**
+	 * @return the lower case hexadecimal representation of the bytes
+	 */
+	public static String toHex(byte[] bytes) {
+		final StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(
+					Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * {@link CRC32} exposed as a {@link MessageDigest}
+	 */
+	private static final class CRC32Digest extends MessageDigest {
+		static final String ALGORITHM = "CRC32";
+
+		private final CRC32 crc = new CRC32();
+
+		CRC32Digest() {
+			super(ALGORITHM);
+		}
+
+		@Override
+		protected void engineUpdate(byte input) {
+			crc.update(input);
+		}
+
+		@Override
+		protected void engineUpdate(byte[] input, int offset, int len) {
+			crc.update(input, offset, len);
+		}
+
+		@Override
+		protected byte[] engineDigest() {
+			final long value = crc.getValue();
+			crc.reset();
+			return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16),
+					(byte) (value >>> 8), (byte) value };
+		}
+
+		@Override
+		protected int engineGetDigestLength() {
+			return 4;
+		}
+
+		@Override
+		protected void engineReset() {
+			crc.reset();
 		}
 	}
 
@@ -213,11 +512,9 @@ public final class IOUtils extends org.apache.commons.io.IOUtils {
 	 * written or if its available for being parsed.
 	 * 
 	 * <p>
-	 * Specifically this method tries to open up a "rw" channel on the provided
-	 * input file. If the file is still being written this operation fails with
-	 * an exception, we therefore catch this exception and sleep for
-	 * {@value #ATOMIC_WAIT} seconds as defined in the constant
-	 * {@link #ATOMIC_WAIT}.
+	 * Specifically this method tries to get an exclusive lock on the provided
+	 * input file using the {@link FileLockManager} and releases it
+	 * immediately.
 	 * 
 	 * <p>
 	 * If after having waited for {@link #MAX_WAITING_TIME_FOR_LOCK} (which is
@@ -238,7 +535,8 @@ public final class IOUtils extends org.apache.commons.io.IOUtils {
 	}
 
 	/**
-	 * Copy {@link InputStream} to {@link OutputStream}.
+	 * Copy {@link InputStream} to {@link OutputStream} using a
+	 * {@link Conf#getBufferSize()} buffer.
 	 * 
 	 * @param sourceStream
 	 *            {@link InputStream} to copy from.
@@ -254,7 +552,7 @@ public final class IOUtils extends org.apache.commons.io.IOUtils {
 	public static void copyStream(InputStream sourceStream,
 			OutputStream destinationStream, boolean closeInput,
 			boolean closeOutput) throws IOException {
-		copyStream(sourceStream, destinationStream, Conf.DEFAULT_SIZE,
+		copyStream(sourceStream, destinationStream, Conf.getBufferSize(),
 				closeInput, closeOutput);
 	}
 
@@ -273,19 +571,15 @@ public final class IOUtils extends org.apache.commons.io.IOUtils {
 	 *            quietly close {@link OutputStream}
 	 * @throws IOException
 	 *             in case something bad happens.
+	 * @see #pumpStream(InputStream, OutputStream, int)
 	 */
 	public static void copyStream(InputStream sourceStream,
 			OutputStream destinationStream, int size, boolean closeInput,
 			boolean closeOutput) throws IOException {
 
 		Objects.notNull(sourceStream, destinationStream);
-		byte[] buf = new byte[size];
-		int n = -1;
 		try {
-			while (-1 != (n = sourceStream.read(buf))) {
-				destinationStream.write(buf, 0, n);
-				destinationStream.flush();
-			}
+			pumpStream(sourceStream, destinationStream, size);
 		} finally {
 			// closing streams and connections
 			try {
@@ -306,6 +600,95 @@ public final class IOUtils extends org.apache.commons.io.IOUtils {
 		}
 	}
 
+	/**
+	 * Pump all the bytes of the {@link InputStream} into the
+	 * {@link OutputStream} without closing them.
+	 * <p>
+	 * If both streams are plain {@link FileInputStream} and
+	 * {@link FileOutputStream} the bytes are transferred between their
+	 * channels (zero-copy) up to the size of the source, the rest of the
+	 * stream (or all of it if the source is not a regular file) is copied
+	 * using a pooled buffer (see {@link ByteBufferPool#getHeapPool()}). The
+	 * destination is flushed once, at the end of the copy.
+	 * 
+	 * @param sourceStream
+	 *            {@link InputStream} to copy from.
+	 * @param destinationStream
+	 *            {@link OutputStream} to copy to.
+	 * @param size
+	 *            size of the buffer (or of each channel transfer).
+	 * @return the number of copied bytes.
+	 * @throws IOException
+	 *             in case something bad happens.
+	 */
+	public static long pumpStream(InputStream sourceStream,
+			OutputStream destinationStream, int size) throws IOException {
+		Objects.notNull(sourceStream, destinationStream);
+		if (size <= 0)
+			throw new IllegalArgumentException("Illegal buffer size: " + size);
+
+		long count = 0;
+		// subclasses may override read/write: use channels only on plain streams
+		if (sourceStream.getClass() == FileInputStream.class
+				&& destinationStream.getClass() == FileOutputStream.class) {
+			count = transferStream(
+					((FileInputStream) sourceStream).getChannel(),
+					((FileOutputStream) destinationStream).getChannel(), size);
+		}
+
+		// the remaining bytes (all of them if the source is not a regular
+		// file: pipes, /proc entries, ...) are copied by the buffered loop
+		final ByteBufferPool pool = ByteBufferPool.getHeapPool();
+		final ByteBuffer buffer = pool.acquire(size);
+		try {
+			final byte[] buf = buffer.array();
+			final int offset = buffer.arrayOffset();
+			int n = -1;
+			while (-1 != (n = sourceStream.read(buf, offset, size))) {
+				destinationStream.write(buf, offset, n);
+				count += n;
+			}
+			destinationStream.flush();
+			return count;
+		} finally {
+			pool.release(buffer);
+		}
+	}
+
+	/**
+	 * Zero-copy transfer of the source channel, from its position to its
+	 * size, into the destination channel. Nothing is transferred if the source
+	 * is not seekable or reports a zero size, the transfer stops as soon as
+	 * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+	 * makes no progress. The source position is left after the last
+	 * transferred byte so the caller can read the rest of the stream.
+	 * 
+	 * @return the number of transferred bytes.
+	 */
+	private static long transferStream(FileChannel source,
+			FileChannel destination, int size) throws IOException {
+		final long start;
+		final long end;
+		try {
+			start = source.position();
+			end = source.size();
+		} catch (IOException e) {
+			// not seekable (named pipe, ...)
+			return 0;
+		}
+		long pos = start;
+		while (pos < end) {
+			final long transferred = source.transferTo(pos,
+					Math.min(size, end - pos), destination);
+			if (transferred <= 0)
+				break;
+			pos += transferred;
+		}
+		// keep the stream position consistent
+		source.position(pos);
+		return pos - start;
+	}
+
 	/**
 	 * Create a subDirectory having the actual date as name, within a specified
 	 * destination directory.
@@ -331,11 +714,13 @@ public final class IOUtils extends org.apache.commons.io.IOUtils {
 	 * written or if its available for being parsed.
 	 * 
 	 * <p>
-	 * Specifically this method tries to open up a "rw" channel on the provided
-	 * input file. If the file is still being written this operation fails with
-	 * an exception, we therefore catch this exception and sleep for
-	 * {@value #ATOMIC_WAIT} seconds as defined in the constant
-	 * {@link #ATOMIC_WAIT}.
+	 * Specifically this method tries to get an exclusive lock on the provided
+	 * input file using the {@link FileLockManager} and releases it
+	 * immediately: threads of this JVM get the file as soon as it is released,
+	 * if the file is locked by another process (or cannot be opened for
+	 * writing) the lock is retried with an exponential backoff (up to
+	 * {@link FileLockManager#MAX_BACKOFF} ms). To hold the lock use the
+	 * {@link FileLockManager} directly.
 	 * 
 	 * <p>
 	 * If after having waited for {@link MAX_WAITING_TIME_FOR_LOCK} (which is
@@ -352,8 +737,10 @@ public final class IOUtils extends org.apache.commons.io.IOUtils {
 	 * chmod(1) and chmod(2)).
 	 * 
 	 * @param caller
+	 *            unused (kept for compatibility)
 	 * @param inputFile
 	 * @param maxwait
+	 *            the max time to wait (milliseconds)
 	 * @return <code>true</code> if the lock has been successfully acquired.
 	 *         <code>false</code> otherwise
 	 * @throws InterruptedException
@@ -376,66 +763,22 @@ public final class IOUtils extends org.apache.commons.io.IOUtils {
 		// writing processes before trying to check on them
 		//
 		// //
-		double sumWait = 0;
-		while (true) {
-			FileOutputStream outStream = null;
-			FileChannel channel = null;
-			FileLock lock = null;
-			try {
-				outStream = new FileOutputStream(inputFile, true);
-
-				// get a rw channel
-				channel = outStream.getChannel();
-				if (channel != null) {
-					// here we could block
-					lock = channel.tryLock();
-					if (lock != null) {
-						if (LOGGER.isTraceEnabled())
-							LOGGER.trace("File locked successfully");
-						return true;
-					}
-				}
-			} catch (OverlappingFileLockException e) {
-				// File is already locked in this thread or virtual machine
-				if (LOGGER.isInfoEnabled())
-					LOGGER.info("File is already locked in this thread or virtual machine");
-			} catch (Exception e) {
-				if (LOGGER.isWarnEnabled())
-					LOGGER.warn(e.getLocalizedMessage(), e);
-			} finally {
-
-				org.apache.commons.io.IOUtils.closeQuietly(outStream);
-
-				// release the lock
-				if (lock != null)
-					try {
-						lock.release();
-					} catch (Exception e) {
-						// eat me
-					}
-
-				if (channel != null)
-					try {
-						channel.close();
-					} catch (Exception e) {
-						// eat me
-					}
-			}
-
-			// Sleep for ATOMIC_WAIT milliseconds prior to retry for acquiring
-			// the lock
-			synchronized (caller) {
-				caller.wait(Conf.ATOMIC_WAIT);
-			}
-
-			sumWait += Conf.ATOMIC_WAIT;
-			if (sumWait > maxwait) {
-				if (LOGGER.isWarnEnabled())
-					LOGGER.warn("Waiting time beyond maximum specified waiting time, exiting...");
-				// Quitting the loop
-				break;
-			}
+		final FileLockManager.Lease lease;
+		try {
+			lease = FileLockManager.getDefault().acquire(inputFile, maxwait,
+					TimeUnit.MILLISECONDS);
+		} catch (NoSuchFileException e) {
+			return false;// file not exists!
+		}
+		if (lease != null) {
+			if (LOGGER.isTraceEnabled())
+				LOGGER.trace("File locked successfully");
+			// release the lock
+			lease.close();
+			return true;
 		}
+		if (LOGGER.isWarnEnabled())
+			LOGGER.warn("Waiting time beyond maximum specified waiting time, exiting...");
 
 		// A time greater than MAX_WAITING_TIME_FOR_LOCK has elapsed and no lock
 		// has
@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.io.file;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.DirectoryWalker.CancelException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A parallel version of the commons-io {@link org.apache.commons.io.DirectoryWalker}
+ * built on java.nio.file.
+ * <p>
+ * Each directory is listed with a {@link DirectoryStream} by a
+ * {@link ForkJoinPool} task which forks a new task for each sub directory.
+ * The attributes of each entry are read once: the {@link File}s passed to the
+ * filter and to the {@link Visitor} answer isDirectory(), isFile(), length()
+ * and lastModified() from that snapshot, without further stat calls.
+ * <p>
+ * The filter and depth semantics are the ones of the DirectoryWalker: the
+ * filter (if not null) is applied to the children of each directory (files
+ * and directories), the start directory has depth 0, its children depth 1
+ * and the hierarchy is navigated up to depthLimit (less than 0 means
+ * unlimited). Symbolic links are followed.
+ * <p>
+ * NOTE: the visitor is called concurrently by the pool threads and in no
+ * particular order.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ */
+public class ParallelDirectoryWalker {
+
+	private final static Logger LOGGER = LoggerFactory
+			.getLogger(ParallelDirectoryWalker.class);
+
+	/**
+	 * Receives the walk events. Implementations must be thread safe.
+	 */
+	public interface Visitor {
+
+		/**
+		 * Called for each visited directory (the start directory included).
+		 *
+		 * @param directory
+		 *            the directory
+		 * @param depth
+		 *            the directory depth
+		 * @return false to skip the directory contents
+		 * @throws IOException
+		 *             to stop the walk
+		 */
+		boolean handleDirectory(File directory, int depth) throws IOException;
+
+		/**
+		 * Called once the (filtered) contents of a directory are listed and
+		 * before they are visited.
+		 *
+		 * @param directory
+		 *            the directory
+		 * @param depth
+		 *            the directory depth
+		 * @param children
+		 *            the filtered children
+		 * @throws IOException
+		 *             to stop the walk
+		 */
+		void handleDirectoryContents(File directory, int depth,
+				List<File> children) throws IOException;
+
+		/**
+		 * Called for each visited file.
+		 *
+		 * @param file
+		 *            the file
+		 * @param depth
+		 *            the file depth
+		 * @throws IOException
+		 *             to stop the walk
+		 */
+		void handleFile(File file, int depth) throws IOException;
+
+		/**
+		 * @return true to stop the walk (a {@link CancelException} is thrown
+		 *         by {@link ParallelDirectoryWalker#walk(File, Visitor, int)})
+		 */
+		boolean isCancelled();
+	}
+
+	private final FileFilter filter;
+
+	private final int depthLimit;
+
+	/**
+	 * @param filter
+	 *            the filter to apply, null means visit all files
+	 * @param depthLimit
+	 *            controls how deep the hierarchy is navigated to (less than 0
+	 *            means unlimited)
+	 */
+	public ParallelDirectoryWalker(final FileFilter filter, final int depthLimit) {
+		this.filter = filter;
+		this.depthLimit = depthLimit;
+	}
+
+	/**
+	 * Walk the tree using a new {@link ForkJoinPool} of the passed
+	 * parallelism.
+	 *
+	 * @param startDirectory
+	 *            the directory to start from
+	 * @param visitor
+	 *            the visitor
+	 * @param parallelism
+	 *            the number of threads walking the tree
+	 * @throws CancelException
+	 *             if the visitor cancels the walk
+	 * @throws IOException
+	 *             the first exception thrown by the visitor
+	 */
+	public void walk(final File startDirectory, final Visitor visitor,
+			final int parallelism) throws IOException {
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			walk(startDirectory, visitor, pool);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Walk the tree using the passed {@link ForkJoinPool}.
+	 *
+	 * @param startDirectory
+	 *            the directory to start from
+	 * @param visitor
+	 *            the visitor
+	 * @param pool
+	 *            the pool to use (it is not shut down)
+	 * @throws CancelException
+	 *             if the visitor cancels the walk
+	 * @throws IOException
+	 *             the first exception thrown by the visitor
+	 */
+	public void walk(final File startDirectory, final Visitor visitor,
+			final ForkJoinPool pool) throws IOException {
+		if (startDirectory == null || visitor == null || pool == null)
+			throw new NullPointerException("Invalid null argument");
+
+		final AtomicReference<IOException> error = new AtomicReference<IOException>();
+		pool.invoke(new DirectoryTask(startDirectory, 0, visitor, error));
+		final IOException ioe = error.get();
+		if (ioe != null)
+			throw ioe;
+		if (visitor.isCancelled())
+			throw new CancelException(startDirectory, 0);
+	}
+
+	/**
+	 * List the directory reading the attributes of each entry once and
+	 * applying the filter.
+	 *
+	 * @return the children or null if the directory cannot be listed
+	 */
+	private List<File> list(final File directory) {
+		final List<File> children = new ArrayList<File>();
+		DirectoryStream<Path> stream = null;
+		try {
+			stream = Files.newDirectoryStream(directory.toPath());
+			for (Path path : stream) {
+				BasicFileAttributes attributes;
+				try {
+					attributes = Files.readAttributes(path,
+							BasicFileAttributes.class);
+				} catch (IOException e) {
+					// f.e. a broken link: use the link itself
+					try {
+						attributes = Files.readAttributes(path,
+								BasicFileAttributes.class,
+								LinkOption.NOFOLLOW_LINKS);
+					} catch (IOException ioe) {
+						if (LOGGER.isDebugEnabled())
+							LOGGER.debug("Skipping unreadable: " + path, ioe);
+						continue;
+					}
+				}
+				final File child = new AttributedFile(path.toString(),
+						attributes);
+				if (filter == null || filter.accept(child))
+					children.add(child);
+			}
+		} catch (IOException e) {
+			// restricted directory
+			if (LOGGER.isDebugEnabled())
+				LOGGER.debug("Unable to list: " + directory, e);
+			return null;
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+					if (LOGGER.isDebugEnabled())
+						LOGGER.debug(e.getLocalizedMessage(), e);
+				}
+			}
+		}
+		return children;
+	}
+
+	/**
+	 * visits a directory forking a new task for each sub directory
+	 */
+	private final class DirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final File directory;
+
+		private final int depth;
+
+		private final Visitor visitor;
+
+		private final AtomicReference<IOException> error;
+
+		DirectoryTask(final File directory, final int depth,
+				final Visitor visitor,
+				final AtomicReference<IOException> error) {
+			this.directory = directory;
+			this.depth = depth;
+			this.visitor = visitor;
+			this.error = error;
+		}
+
+		private boolean isStopped() {
+			return error.get() != null || visitor.isCancelled();
+		}
+
+		@Override
+		protected void compute() {
+			if (isStopped())
+				return;
+			try {
+				if (!visitor.handleDirectory(directory, depth))
+					return;
+				final int childDepth = depth + 1;
+				if (depthLimit >= 0 && childDepth > depthLimit)
+					return;
+				final List<File> children = list(directory);
+				if (children == null)
+					return;
+				visitor.handleDirectoryContents(directory, depth, children);
+
+				final List<DirectoryTask> subTasks = new ArrayList<DirectoryTask>();
+				for (File child : children) {
+					if (isStopped())
+						break;
+					if (child.isDirectory()) {
+						subTasks.add(new DirectoryTask(child, childDepth,
+								visitor, error));
+					} else {
+						visitor.handleFile(child, childDepth);
+					}
+				}
+				invokeAll(subTasks);
+			} catch (IOException e) {
+				error.compareAndSet(null, e);
+			}
+		}
+	}
+
+	/**
+	 * A {@link File} answering from a snapshot of its type, size and time:
+	 * {@link #exists()} is not cached, since the file may be removed once
+	 * walked.
+	 */
+	private static final class AttributedFile extends File {
+		private static final long serialVersionUID = 1L;
+
+		private final boolean directory;
+
+		private final boolean regular;
+
+		private final long length;
+
+		private final long lastModified;
+
+		AttributedFile(final String pathname,
+				final BasicFileAttributes attributes) {
+			super(pathname);
+			this.directory = attributes.isDirectory();
+			this.regular = attributes.isRegularFile();
+			this.length = attributes.size();
+			this.lastModified = attributes.lastModifiedTime().toMillis();
+		}
+
+		@Override
+		public boolean isDirectory() {
+			return directory;
+		}
+
+		@Override
+		public boolean isFile() {
+			return regular;
+		}
+
+		@Override
+		public long length() {
+			return length;
+		}
+
+		@Override
+		public long lastModified() {
+			return lastModified;
+		}
+	}
+}
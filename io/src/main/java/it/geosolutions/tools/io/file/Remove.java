@@ -4,6 +4,22 @@ import it.geosolutions.tools.commons.check.Objects;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
 
 public abstract class Remove {
 
@@ -96,4 +112,182 @@ public abstract class Remove {
 		return deleteItself ? sourceDirectory.delete() : true;
 	}
 
+	/**
+	 * Delete a tree in parallel: each directory is listed with a
+	 * {@link DirectoryStream} and its sub directories are deleted by
+	 * {@link ForkJoinPool} tasks, bottom-up. Symbolic links are deleted, not
+	 * followed (a symbolic link to a directory is not accepted as the root of
+	 * the tree).<br>
+	 * Unlike {@link #emptyDirectory(File, boolean, boolean)} the deletion
+	 * does not stop at the first failure: all the deletable entries are
+	 * deleted and the failures are reported (a directory whose content could
+	 * not be entirely deleted is left in place).
+	 * 
+	 * @param directory
+	 *            the directory to delete
+	 * @param deleteItself
+	 *            true to delete the directory itself, false to empty it
+	 * @param parallelism
+	 *            the number of threads deleting
+	 * @return the report of the deletion
+	 * @throws IllegalStateException
+	 *             if directory is not an existing directory (or it is a
+	 *             symbolic link)
+	 */
+	public static DeleteReport deleteTree(File directory, boolean deleteItself,
+			int parallelism) {
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			return deleteTree(directory, deleteItself, pool);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * {@link #deleteTree(File, boolean, int)} using the passed pool (which
+	 * is not shut down).
+	 */
+	public static DeleteReport deleteTree(File directory, boolean deleteItself,
+			ForkJoinPool pool) {
+		Objects.notNull(directory, pool);
+		checkRoot(directory);
+
+		final DeleteReport report = new DeleteReport(directory);
+		pool.invoke(new DeleteTask(directory.toPath(), deleteItself, report));
+		return report;
+	}
+
+	/**
+	 * Delete a tree asynchronously: the directory is atomically renamed to a
+	 * hidden sibling (so its path can be reused immediately) and deleted by a
+	 * task submitted to the passed executor.
+	 * 
+	 * @param directory
+	 *            the directory to delete
+	 * @param es
+	 *            the executor running the deletion
+	 * @param parallelism
+	 *            the number of threads deleting
+	 * @return the future report of the deletion
+	 * @throws IOException
+	 *             if the directory cannot be renamed
+	 * @throws IllegalStateException
+	 *             if directory is not an existing directory (or it is a
+	 *             symbolic link)
+	 */
+	public static Future<DeleteReport> deleteTreeAsync(File directory,
+			ExecutorService es, final int parallelism) throws IOException {
+		Objects.notNull(directory, es);
+		checkRoot(directory);
+
+		final File trash = new File(directory.getAbsoluteFile()
+				.getParentFile(), "." + directory.getName() + ".deleting-"
+				+ System.nanoTime());
+		Files.move(directory.toPath(), trash.toPath(),
+				StandardCopyOption.ATOMIC_MOVE);
+		return es.submit(new Callable<DeleteReport>() {
+			public DeleteReport call() throws Exception {
+				return deleteTree(trash, true, parallelism);
+			}
+		});
+	}
+
+	/**
+	 * the root of a deleted tree must be a directory, not a link to it (the
+	 * content of the target would be deleted)
+	 */
+	private static void checkRoot(final File directory)
+			throws IllegalStateException {
+		if (!Files.isDirectory(directory.toPath(), LinkOption.NOFOLLOW_LINKS))
+			throw new IllegalStateException("Source is not in a legal state.");
+	}
+
+	/**
+	 * deletes the content of a directory (and optionally the directory)
+	 * returning true if everything was deleted
+	 */
+	private static final class DeleteTask extends RecursiveTask<Boolean> {
+		private static final long serialVersionUID = 1L;
+
+		private final Path directory;
+
+		private final boolean deleteItself;
+
+		private final DeleteReport report;
+
+		DeleteTask(final Path directory, final boolean deleteItself,
+				final DeleteReport report) {
+			this.directory = directory;
+			this.deleteItself = deleteItself;
+			this.report = report;
+		}
+
+		private boolean delete(final Path path) {
+			try {
+				Files.delete(path);
+				report.deleted();
+				return true;
+			} catch (IOException e) {
+				report.failed(path.toFile(), e);
+				return false;
+			}
+		}
+
+		@Override
+		protected Boolean compute() {
+			boolean success = true;
+			final List<DeleteTask> subTasks = new ArrayList<DeleteTask>();
+			DirectoryStream<Path> stream = null;
+			try {
+				stream = Files.newDirectoryStream(directory);
+				for (Path path : stream) {
+					final BasicFileAttributes attributes;
+					try {
+						attributes = Files.readAttributes(path,
+								BasicFileAttributes.class,
+								LinkOption.NOFOLLOW_LINKS);
+					} catch (NoSuchFileException e) {
+						// already deleted
+						continue;
+					} catch (IOException e) {
+						report.failed(path.toFile(), e);
+						success = false;
+						continue;
+					}
+					if (attributes.isDirectory()) {
+						final DeleteTask task = new DeleteTask(path, true,
+								report);
+						task.fork();
+						subTasks.add(task);
+					} else {
+						success &= delete(path);
+					}
+				}
+			} catch (DirectoryIteratorException e) {
+				report.failed(directory.toFile(), e.getCause());
+				success = false;
+			} catch (IOException e) {
+				report.failed(directory.toFile(), e);
+				success = false;
+			} finally {
+				if (stream != null) {
+					try {
+						stream.close();
+					} catch (IOException e) {
+						// nothing to do
+					}
+				}
+			}
+			for (DeleteTask task : subTasks) {
+				success &= task.join();
+			}
+			if (success && deleteItself) {
+				// bottom-up: the directory is empty
+				success = delete(directory);
+			}
+			return success;
+		}
+	}
+
 }
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.io.file;
+
+import it.geosolutions.tools.commons.file.Path;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Time bucketed index of the day directories of a root directory, to apply
+ * an age based retention policy without scanning the root at each sweep.
+ * <p>
+ * Directories are grouped by day: the day is parsed from the
+ * <code>yyyy_MM_dd</code> name prefix used by
+ * {@link IOUtils#createTodayDirectory(File)} and
+ * {@link Path#createTodayDirectory(File, String, boolean)}, for other
+ * directories the last modified day is used. The index is built by
+ * {@link #rebuild()} (one scan of the root) and then maintained
+ * incrementally with {@link #register(File)} (or creating the directories
+ * with {@link #createTodayDirectory(String)}), so {@link #expire(long, int)}
+ * only touches the expired buckets.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ */
+public class RetentionIndex {
+
+	private final static Logger LOGGER = LoggerFactory
+			.getLogger(RetentionIndex.class);
+
+	private static final String DAY_PATTERN = "yyyy_MM_dd";
+
+	private final File root;
+
+	/**
+	 * day (midnight in milliseconds) to its directories
+	 */
+	private final TreeMap<Long, Set<File>> buckets = new TreeMap<Long, Set<File>>();
+
+	/**
+	 * @param root
+	 *            the directory holding the day directories
+	 */
+	public RetentionIndex(final File root) {
+		if (root == null)
+			throw new IllegalArgumentException("Invalid null argument");
+		this.root = root;
+	}
+
+	/**
+	 * @return the midnight of the passed time
+	 */
+	private static long midnight(final long time) {
+		final Calendar cal = Calendar.getInstance();
+		cal.setTimeInMillis(time);
+		cal.set(Calendar.HOUR_OF_DAY, 0);
+		cal.set(Calendar.MINUTE, 0);
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+		return cal.getTimeInMillis();
+	}
+
+	/**
+	 * @return the day of the directory: parsed from its name or its last
+	 *         modified day
+	 */
+	private static long day(final File directory) {
+		final String name = directory.getName();
+		if (name.length() >= DAY_PATTERN.length()) {
+			final SimpleDateFormat sdf = new SimpleDateFormat(DAY_PATTERN);
+			sdf.setLenient(false);
+			try {
+				return sdf.parse(name.substring(0, DAY_PATTERN.length()))
+						.getTime();
+			} catch (ParseException e) {
+				// not a day directory
+			}
+		}
+		return midnight(directory.lastModified());
+	}
+
+	/**
+	 * Clear the index and scan the root for its directories.
+	 *
+	 * @return the number of indexed directories
+	 */
+	public synchronized int rebuild() {
+		buckets.clear();
+		final File[] dirs = root.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				// symbolic links are not deleted by the sweep
+				return Files.isDirectory(file.toPath(),
+						LinkOption.NOFOLLOW_LINKS);
+			}
+		});
+		if (dirs == null) {
+			if (LOGGER.isWarnEnabled())
+				LOGGER.warn("Unable to list: " + root.getAbsolutePath());
+			return 0;
+		}
+		for (File dir : dirs) {
+			add(dir);
+		}
+		return dirs.length;
+	}
+
+	private void add(final File directory) {
+		if (Files.isSymbolicLink(directory.toPath())) {
+			if (LOGGER.isWarnEnabled())
+				LOGGER.warn("Skipping symbolic link: "
+						+ directory.getAbsolutePath());
+			return;
+		}
+		final Long day = Long.valueOf(day(directory));
+		Set<File> bucket = buckets.get(day);
+		if (bucket == null) {
+			bucket = new LinkedHashSet<File>();
+			buckets.put(day, bucket);
+		}
+		bucket.add(directory);
+	}
+
+	/**
+	 * Add a directory to the index (symbolic links are skipped).
+	 *
+	 * @param directory
+	 *            a directory of the root
+	 */
+	public synchronized void register(final File directory) {
+		add(directory);
+	}
+
+	/**
+	 * Create (if needed) and index the today directory:
+	 * <code>yyyy_MM_dd_inputFileName</code> or <code>yyyy_MM_dd</code> if
+	 * inputFileName is null.
+	 *
+	 * @param inputFileName
+	 *            the name suffix (can be null)
+	 * @return the directory or null if it cannot be created
+	 */
+	public File createTodayDirectory(final String inputFileName) {
+		final File dir = inputFileName == null ? IOUtils
+				.createTodayDirectory(root) : Path.createTodayDirectory(root,
+				inputFileName);
+		if (dir == null || !dir.isDirectory())
+			return null;
+		register(dir);
+		return dir;
+	}
+
+	/**
+	 * @return the number of indexed directories
+	 */
+	public synchronized int size() {
+		int size = 0;
+		for (Set<File> bucket : buckets.values()) {
+			size += bucket.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Remove from the index the directories of the days before the day
+	 * daysAgo days before time.
+	 *
+	 * @param time
+	 *            the reference time (milliseconds)
+	 * @param daysAgo
+	 *            the number of days to retain
+	 * @return the expired directories, older first
+	 * @throws IllegalArgumentException
+	 *             if daysAgo is negative
+	 */
+	public synchronized List<File> expire(final long time, final int daysAgo)
+			throws IllegalArgumentException {
+		if (daysAgo < 0)
+			throw new IllegalArgumentException("Negative days: " + daysAgo);
+		final Calendar cal = Calendar.getInstance();
+		cal.setTimeInMillis(midnight(time));
+		cal.add(Calendar.DAY_OF_YEAR, -daysAgo);
+		final SortedMap<Long, Set<File>> expired = buckets.headMap(Long
+				.valueOf(cal.getTimeInMillis()));
+		final List<File> files = new ArrayList<File>();
+		for (Set<File> bucket : expired.values()) {
+			files.addAll(bucket);
+		}
+		expired.clear();
+		return files;
+	}
+
+	/**
+	 * Expire and delete the old directories.
+	 *
+	 * @param time
+	 *            the reference time (milliseconds)
+	 * @param daysAgo
+	 *            the number of days to retain
+	 * @param parallelism
+	 *            the number of threads deleting each directory
+	 * @return the reports of the deleted directories (the ones which could
+	 *         not be entirely deleted are indexed again, the ones which are
+	 *         no more deletable directories are reported as failed)
+	 * @see Remove#deleteTree(File, boolean, int)
+	 */
+	public List<DeleteReport> sweep(final long time, final int daysAgo,
+			final int parallelism) {
+		final List<DeleteReport> reports = new ArrayList<DeleteReport>();
+		for (File dir : expire(time, daysAgo)) {
+			if (!dir.isDirectory())
+				continue;
+			DeleteReport report;
+			try {
+				report = Remove.deleteTree(dir, true, parallelism);
+			} catch (IllegalStateException e) {
+				// replaced by a symbolic link (or removed) after indexing
+				report = new DeleteReport(dir);
+				report.failed(dir, new IOException(e.getMessage(), e));
+				if (LOGGER.isWarnEnabled())
+					LOGGER.warn("Unable to delete: " + report + ": "
+							+ e.getMessage());
+				reports.add(report);
+				continue;
+			}
+			if (!report.isSuccessful()) {
+				if (LOGGER.isWarnEnabled()) {
+					LOGGER.warn("Unable to delete: " + report);
+					for (Map.Entry<File, ?> failure : report.getFailures()
+							.entrySet()) {
+						LOGGER.warn(failure.getKey() + ": "
+								+ failure.getValue());
+					}
+				}
+				// retry at the next sweep
+				register(dir);
+			}
+			reports.add(report);
+		}
+		return reports;
+	}
+}
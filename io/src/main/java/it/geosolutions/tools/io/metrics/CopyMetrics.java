@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.io.metrics;
+
+/**
+ * The metrics SPI: receives the events of the copies of the io module.
+ * <p>
+ * Implementations are called by the copying threads so they must be thread
+ * safe and fast. An implementation can be installed with
+ * {@link Metrics#setMetrics(CopyMetrics)} or declared as a
+ * {@link java.util.ServiceLoader} provider (in
+ * <code>META-INF/services/it.geosolutions.tools.io.metrics.CopyMetrics</code>
+ * ).
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ * @see CopyStatistics
+ */
+public interface CopyMetrics {
+
+	/**
+	 * a copy was submitted to an executor
+	 */
+	void onQueued();
+
+	/**
+	 * a submitted copy was taken by a thread of the executor
+	 */
+	void onDequeued();
+
+	/**
+	 * a file copy is started
+	 */
+	void onStarted();
+
+	/**
+	 * a file copy is completed
+	 *
+	 * @param bytes
+	 *            the copied bytes
+	 * @param nanos
+	 *            the duration of the copy
+	 */
+	void onCompleted(long bytes, long nanos);
+
+	/**
+	 * a file copy failed
+	 *
+	 * @param nanos
+	 *            the time spent before the failure
+	 */
+	void onFailed(long nanos);
+
+	/**
+	 * a file was not copied because it is up to date
+	 */
+	void onSkipped();
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.io.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The built in {@link CopyMetrics}: counters, gauges and a latency
+ * {@link Histogram} (microseconds) of the copies, exposed as an MBean.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ * @see Metrics#enable()
+ */
+public class CopyStatistics implements CopyMetrics, CopyStatisticsMBean {
+
+	/**
+	 * the domain of the registered MBeans
+	 */
+	public static final String DOMAIN = "it.geosolutions.tools.io";
+
+	private final AtomicInteger queued = new AtomicInteger();
+
+	private final AtomicInteger active = new AtomicInteger();
+
+	private final AtomicLong files = new AtomicLong();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	private final AtomicLong failures = new AtomicLong();
+
+	private final AtomicLong skipped = new AtomicLong();
+
+	private final Histogram latency = new Histogram();
+
+	private volatile long resetTime = System.nanoTime();
+
+	public void onQueued() {
+		queued.incrementAndGet();
+	}
+
+	public void onDequeued() {
+		queued.decrementAndGet();
+	}
+
+	public void onStarted() {
+		active.incrementAndGet();
+	}
+
+	public void onCompleted(final long bytes, final long nanos) {
+		active.decrementAndGet();
+		files.incrementAndGet();
+		this.bytes.addAndGet(bytes);
+		latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	public void onFailed(final long nanos) {
+		active.decrementAndGet();
+		failures.incrementAndGet();
+		latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	public void onSkipped() {
+		skipped.incrementAndGet();
+	}
+
+	public int getQueueDepth() {
+		return queued.get();
+	}
+
+	public int getActiveCopies() {
+		return active.get();
+	}
+
+	public long getCopiedFiles() {
+		return files.get();
+	}
+
+	public long getCopiedBytes() {
+		return bytes.get();
+	}
+
+	public long getFailedCopies() {
+		return failures.get();
+	}
+
+	public long getSkippedCopies() {
+		return skipped.get();
+	}
+
+	public double getFailureRate() {
+		final long failed = failures.get();
+		final long total = failed + files.get();
+		return total == 0 ? 0 : (double) failed / total;
+	}
+
+	public double getBytesPerSecond() {
+		final long nanos = System.nanoTime() - resetTime;
+		return nanos <= 0 ? 0 : bytes.get() * 1e9 / nanos;
+	}
+
+	/**
+	 * @return the latency histogram (microseconds)
+	 */
+	public Histogram getLatency() {
+		return latency;
+	}
+
+	public double getLatencyMean() {
+		return latency.getMean() / 1000;
+	}
+
+	public double getLatency50th() {
+		return latency.getPercentile(50) / 1000d;
+	}
+
+	public double getLatency95th() {
+		return latency.getPercentile(95) / 1000d;
+	}
+
+	public double getLatency99th() {
+		return latency.getPercentile(99) / 1000d;
+	}
+
+	public double getLatencyMax() {
+		return latency.getMax() / 1000d;
+	}
+
+	public void reset() {
+		files.set(0);
+		bytes.set(0);
+		failures.set(0);
+		skipped.set(0);
+		latency.reset();
+		resetTime = System.nanoTime();
+	}
+
+	/**
+	 * @return the name of the MBean: <code>{@value #DOMAIN}:type=CopyStatistics,name=name</code>
+	 */
+	public static ObjectName getObjectName(final String name)
+			throws JMException {
+		return new ObjectName(DOMAIN + ":type=CopyStatistics,name="
+				+ ObjectName.quote(name));
+	}
+
+	/**
+	 * Register this MBean to the platform MBean server (replacing a
+	 * registered one with the same name).
+	 *
+	 * @param name
+	 *            the name of the MBean
+	 * @return the registered name
+	 * @throws JMException
+	 *             if the registration fails
+	 */
+	public ObjectName register(final String name) throws JMException {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName objectName = getObjectName(name);
+		if (server.isRegistered(objectName))
+			server.unregisterMBean(objectName);
+		server.registerMBean(this, objectName);
+		return objectName;
+	}
+
+	/**
+	 * Unregister the MBean (if registered).
+	 *
+	 * @throws JMException
+	 *             if the unregistration fails
+	 */
+	public static void unregister(final String name) throws JMException {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName objectName = getObjectName(name);
+		if (server.isRegistered(objectName))
+			server.unregisterMBean(objectName);
+	}
+}
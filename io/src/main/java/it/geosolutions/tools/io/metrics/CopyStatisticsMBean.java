@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.io.metrics;
+
+/**
+ * The JMX view of the {@link CopyStatistics}.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ */
+public interface CopyStatisticsMBean {
+
+	/**
+	 * @return the copies submitted and not yet started
+	 */
+	int getQueueDepth();
+
+	/**
+	 * @return the copies in progress
+	 */
+	int getActiveCopies();
+
+	long getCopiedFiles();
+
+	long getCopiedBytes();
+
+	long getFailedCopies();
+
+	long getSkippedCopies();
+
+	/**
+	 * @return the failed copies over all the finished ones (0-1)
+	 */
+	double getFailureRate();
+
+	/**
+	 * @return the copied bytes per second since the last reset
+	 */
+	double getBytesPerSecond();
+
+	/**
+	 * @return the mean copy time of a file (ms)
+	 */
+	double getLatencyMean();
+
+	/**
+	 * @return the median copy time of a file (ms)
+	 */
+	double getLatency50th();
+
+	/**
+	 * @return the 95th percentile of the copy time of a file (ms)
+	 */
+	double getLatency95th();
+
+	/**
+	 * @return the 99th percentile of the copy time of a file (ms)
+	 */
+	double getLatency99th();
+
+	/**
+	 * @return the max copy time of a file (ms)
+	 */
+	double getLatencyMax();
+
+	/**
+	 * Reset the counters and the latencies (not the queue depth and the
+	 * active copies).
+	 */
+	void reset();
+}
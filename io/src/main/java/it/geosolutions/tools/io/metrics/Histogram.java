@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.io.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of non negative values with a bounded relative error
+ * (as the HDR histograms).
+ * <p>
+ * Each power of two range is split in {@link #SUB_BUCKETS} linear buckets, so
+ * a recorded value is counted in a bucket no wider than 1/
+ * {@link #SUB_BUCKETS} of the value (values lower than {@link #SUB_BUCKETS}
+ * are exact). Recording is a single atomic increment of a fixed array: the
+ * whole long range takes less than 1000 buckets.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ */
+public class Histogram {
+
+	private static final int SUB_BITS = 4;
+
+	/**
+	 * the number of buckets of each power of two range
+	 */
+	public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(
+			(64 - SUB_BITS) * SUB_BUCKETS);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	static int index(final long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return ((shift + 1) << SUB_BITS)
+				+ (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @return the highest value counted in the bucket
+	 */
+	static long highest(final int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		final int shift = (index >>> SUB_BITS) - 1;
+		final long sub = index & (SUB_BUCKETS - 1);
+		return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * @param value
+	 *            the value to record (negative values are recorded as 0)
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		counts.incrementAndGet(index(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current;
+		while (value > (current = max.get())) {
+			if (max.compareAndSet(current, value))
+				break;
+		}
+	}
+
+	/**
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the max recorded value
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean of the recorded values (0 if empty)
+	 */
+	public double getMean() {
+		final long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * @param percentile
+	 *            the percentile (0-100)
+	 * @return the value (within the bucket precision) below which the passed
+	 *         percentile of the recorded values falls (0 if empty)
+	 */
+	public long getPercentile(final double percentile) {
+		if (percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException("Illegal percentile: "
+					+ percentile);
+		final long n = count.get();
+		if (n == 0)
+			return 0;
+		final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(highest(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forget the recorded values (concurrent recordings may be lost or
+	 * partially kept).
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2011 - 2012  GeoSolutions S.A.S.
+ * http://www.geo-solutions.it
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package it.geosolutions.tools.io.metrics;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import javax.management.JMException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The installed {@link CopyMetrics} and the helpers used by the copies to
+ * notify it.
+ * <p>
+ * Metrics are disabled by default: the first {@link ServiceLoader} provider
+ * of {@link CopyMetrics} is installed when the class is loaded, otherwise a
+ * no operation implementation is used and the helpers return without
+ * reading the clock.
+ *
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ */
+public final class Metrics {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(Metrics.class);
+
+	/**
+	 * the name of the MBean registered by {@link #enable()}
+	 */
+	public static final String MBEAN_NAME = "default";
+
+	/**
+	 * the disabled metrics
+	 */
+	public static final CopyMetrics NOOP = new CopyMetrics() {
+		public void onQueued() {
+		}
+
+		public void onDequeued() {
+		}
+
+		public void onStarted() {
+		}
+
+		public void onCompleted(long bytes, long nanos) {
+		}
+
+		public void onFailed(long nanos) {
+		}
+
+		public void onSkipped() {
+		}
+	};
+
+	private static volatile CopyMetrics metrics = load();
+
+	private Metrics() {
+	}
+
+	private static CopyMetrics load() {
+		try {
+			final Iterator<CopyMetrics> it = ServiceLoader.load(
+					CopyMetrics.class).iterator();
+			if (it.hasNext()) {
+				final CopyMetrics provider = it.next();
+				if (LOGGER.isInfoEnabled())
+					LOGGER.info("Using copy metrics: "
+							+ provider.getClass().getName());
+				return provider;
+			}
+		} catch (ServiceConfigurationError e) {
+			if (LOGGER.isErrorEnabled())
+				LOGGER.error(e.getLocalizedMessage(), e);
+		}
+		return NOOP;
+	}
+
+	/**
+	 * @return the installed metrics
+	 */
+	public static CopyMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @param metrics
+	 *            the metrics to install or null to disable them
+	 */
+	public static void setMetrics(final CopyMetrics metrics) {
+		Metrics.metrics = metrics == null ? NOOP : metrics;
+	}
+
+	/**
+	 * @return true if the installed metrics are not {@link #NOOP}
+	 */
+	public static boolean isEnabled() {
+		return metrics != NOOP;
+	}
+
+	/**
+	 * Install new {@link CopyStatistics} registering them as the
+	 * {@value #MBEAN_NAME} MBean (registration failures are logged).
+	 *
+	 * @return the installed statistics
+	 */
+	public static CopyStatistics enable() {
+		final CopyStatistics statistics = new CopyStatistics();
+		try {
+			statistics.register(MBEAN_NAME);
+		} catch (JMException e) {
+			if (LOGGER.isWarnEnabled())
+				LOGGER.warn("Unable to register the copy statistics MBean: "
+						+ e.getLocalizedMessage(), e);
+		}
+		setMetrics(statistics);
+		return statistics;
+	}
+
+	/**
+	 * Disable the metrics unregistering the {@value #MBEAN_NAME} MBean.
+	 */
+	public static void disable() {
+		setMetrics(null);
+		try {
+			CopyStatistics.unregister(MBEAN_NAME);
+		} catch (JMException e) {
+			if (LOGGER.isWarnEnabled())
+				LOGGER.warn(e.getLocalizedMessage(), e);
+		}
+	}
+
+	/**
+	 * Notify the start of a file copy.
+	 *
+	 * @return the start time to pass to {@link #completed(long, long)} or
+	 *         {@link #failed(long)} (0 if the metrics are disabled)
+	 */
+	public static long started() {
+		final CopyMetrics m = metrics;
+		if (m == NOOP)
+			return 0;
+		m.onStarted();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Notify the completion of a file copy.
+	 *
+	 * @param start
+	 *            the value returned by {@link #started()}
+	 * @param bytes
+	 *            the copied bytes
+	 */
+	public static void completed(final long start, final long bytes) {
+		if (start != 0)
+			metrics.onCompleted(bytes, System.nanoTime() - start);
+	}
+
+	/**
+	 * Notify the failure of a file copy.
+	 *
+	 * @param start
+	 *            the value returned by {@link #started()}
+	 */
+	public static void failed(final long start) {
+		if (start != 0)
+			metrics.onFailed(System.nanoTime() - start);
+	}
+}
@@ -0,0 +1,81 @@
+package it.geosolutions.tools.io;
+
+import it.geosolutions.tools.io.buffer.ByteBufferPool;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ */
+public class ByteBufferPoolTest extends Assert {
+
+    @Test
+    public void acquireRelease() throws Exception {
+        final ByteBufferPool pool = new ByteBufferPool(true, 64 * 1024, 128 * 1024);
+        final ByteBuffer buffer = pool.acquire(5000);
+        assertTrue(buffer.isDirect());
+        assertEquals(0, buffer.position());
+        assertEquals(5000, buffer.limit());
+        assertEquals(8192, buffer.capacity());
+        pool.release(buffer);
+        assertEquals(8192, pool.getPooledBytes());
+
+        // same size class: reused
+        final ByteBuffer reused = pool.acquire(8000);
+        assertSame(buffer, reused);
+        assertEquals(8000, reused.limit());
+        assertEquals(1, pool.getReused());
+        assertEquals(0, pool.getPooledBytes());
+        pool.release(reused);
+
+        // bigger than max buffer size: not pooled
+        final ByteBuffer big = pool.acquire(100 * 1024);
+        assertEquals(100 * 1024, big.capacity());
+        pool.release(big);
+        assertEquals(1, pool.getDropped());
+        assertEquals(8192, pool.getPooledBytes());
+    }
+
+    @Test
+    public void maxBufferSize() throws Exception {
+        // not a power of two
+        final ByteBufferPool pool = new ByteBufferPool(false, 40 * 1024, 128 * 1024);
+        assertEquals(40 * 1024, pool.getMaxBufferSize());
+        // the biggest class is not rounded up
+        final ByteBuffer buffer = pool.acquire(40 * 1024);
+        assertEquals(40 * 1024, buffer.capacity());
+        pool.release(buffer);
+        assertEquals(40 * 1024, pool.getPooledBytes());
+        final ByteBuffer reused = pool.acquire(33 * 1024);
+        assertSame(buffer, reused);
+        assertEquals(33 * 1024, reused.limit());
+        pool.release(reused);
+        assertEquals(0, pool.getDropped());
+        // smaller classes are powers of two
+        assertEquals(32 * 1024, pool.acquire(20 * 1024).capacity());
+    }
+
+    @Test
+    public void maxPoolSize() throws Exception {
+        final ByteBufferPool pool = new ByteBufferPool(false, 64 * 1024, 128 * 1024);
+        final ByteBuffer[] buffers = new ByteBuffer[3];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.acquire(64 * 1024);
+            assertFalse(buffers[i].isDirect());
+        }
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        // only 2 buffers fit the pool
+        assertEquals(128 * 1024, pool.getPooledBytes());
+        assertEquals(1, pool.getDropped());
+        pool.clear();
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+}
@@ -1,12 +1,17 @@
 package it.geosolutions.tools.io;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import it.geosolutions.tools.io.file.Collector;
+import it.geosolutions.tools.io.file.CollectorIterator;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.io.IOCase;
 import org.apache.commons.io.filefilter.FileFilterUtils;
@@ -52,4 +57,54 @@ public class CollectorTests {
         assertEquals("Wrong number of files...", FILES_IN_TEST, list.size());
 
     }
+
+    @Test
+    public final void testParallelCollect() throws Exception {
+        Collector c = new Collector(FileFilterUtils.or(new WildcardFileFilter("*_PCK.xml",
+                IOCase.INSENSITIVE), new WildcardFileFilter("*_PRO", IOCase.INSENSITIVE)));
+
+        File location = TestData.file(this, "collector");
+
+        List<File> list = c.collect(location, 4);
+
+        assertNotNull(list);
+
+        assertEquals("Wrong number of files...", FILES_IN_TEST, list.size());
+
+        assertEquals(new HashSet<File>(c.collect(location)), new HashSet<File>(list));
+    }
+
+    @Test
+    public final void testIterator() throws Exception {
+        Collector c = new Collector(FileFilterUtils.or(new WildcardFileFilter("*_PCK.xml",
+                IOCase.INSENSITIVE), new WildcardFileFilter("*_PRO", IOCase.INSENSITIVE)));
+
+        File location = TestData.file(this, "collector");
+
+        Set<File> files = new HashSet<File>();
+        CollectorIterator it = c.iterator(location);
+        while (it.hasNext()) {
+            assertTrue(files.add(it.next()));
+        }
+        assertFalse(it.hasNext());
+
+        assertEquals(new HashSet<File>(c.collect(location)), files);
+
+        // early termination
+        it = c.iterator(location);
+        assertTrue(it.hasNext());
+        assertNotNull(it.next());
+        it.close();
+        assertFalse(it.hasNext());
+    }
+
+    @Test(expected = IOException.class)
+    public final void testIteratorNotADirectory() throws Exception {
+        File file = File.createTempFile("collector", ".tmp");
+        try {
+            new Collector(null).iterator(file);
+        } finally {
+            file.delete();
+        }
+    }
 }
@@ -0,0 +1,291 @@
+package it.geosolutions.tools.io;
+
+import it.geosolutions.tools.commons.listener.DefaultProgress;
+import it.geosolutions.tools.commons.listener.TransferMonitor;
+import it.geosolutions.tools.commons.listener.TransferProgress;
+import it.geosolutions.tools.io.file.Copy;
+import it.geosolutions.tools.io.file.CopyCheckpoint;
+import it.geosolutions.tools.io.file.CopyExecutors;
+import it.geosolutions.tools.io.file.CopyResult;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.test.TestData;
+import org.junit.Test;
+
+/**
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ */
+public class CopyTest extends Assert {
+
+    private File createFile(File dir, String name, long size) throws Exception {
+        final File file = new File(dir, name);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+            for (long pos = 0; pos < size; pos += 4093) {
+                raf.seek(pos);
+                raf.write((int) (pos % 251));
+            }
+        } finally {
+            raf.close();
+        }
+        return file;
+    }
+
+    private File getDir() throws Exception {
+        final File dir = new File(TestData.file(this, "."), "copy");
+        assertTrue(dir.exists() ? true : dir.mkdirs());
+        return dir;
+    }
+
+    @Test
+    public void parallelCopyFile() throws Exception {
+        final File dir = getDir();
+        final File source = createFile(dir, "parallel.src", 5 * 1024 * 1024 + 13);
+        final File dest = new File(dir, "parallel.dst");
+        final ExecutorService es = Executors.newFixedThreadPool(3);
+        try {
+            assertEquals(source.length(),
+                    Copy.parallelCopyFile(es, source, dest, 1024 * 1024, 64 * 1024));
+            // the caller executor is left untouched
+            assertFalse(es.isShutdown());
+        } finally {
+            es.shutdownNow();
+        }
+        assertEquals(source.length(), dest.length());
+        assertTrue(FileUtils.contentEquals(source, dest));
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    public void parallelCopyListFileToNFS() throws Exception {
+        final File dir = getDir();
+        final File destDir = new File(dir, "dest");
+        assertTrue(destDir.mkdirs());
+        final List<File> list = new ArrayList<File>();
+        for (int i = 0; i < 20; i++) {
+            list.add(createFile(dir, "list_" + i + ".src", 10 * 1024 + i));
+        }
+        // 2 threads and 2 queued copies: the caller runs the others
+        final ExecutorService es = CopyExecutors.newBoundedExecutor(2, 2);
+        try {
+            final List<File> copied = Copy.parallelCopyListFileToNFS(es, list, destDir, -1);
+            assertEquals(list.size(), copied.size());
+            assertFalse(es.isShutdown());
+        } finally {
+            es.shutdownNow();
+        }
+        for (File f : list) {
+            assertTrue(FileUtils.contentEquals(f, new File(destDir, f.getName())));
+        }
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    public void streamCopyListFileToNFS() throws Exception {
+        final File dir = getDir();
+        final File destDir = new File(dir, "stream");
+        assertTrue(destDir.mkdirs());
+        final List<File> list = new ArrayList<File>();
+        for (int i = 0; i < 10; i++) {
+            list.add(createFile(dir, "stream_" + i + ".src", 1024 * (10 - i)));
+        }
+        // a missing file is skipped
+        list.add(new File(dir, "missing.src"));
+        final ExecutorService es = Executors.newFixedThreadPool(4);
+        try {
+            final Iterator<File> it = Copy.streamCopyListFileToNFS(es, list, destDir, -1);
+            assertNotNull(it);
+            int count = 0;
+            while (it.hasNext()) {
+                final File copied = it.next();
+                assertEquals(destDir, copied.getParentFile());
+                assertTrue(FileUtils.contentEquals(new File(dir, copied.getName()), copied));
+                count++;
+            }
+            assertEquals(10, count);
+        } finally {
+            es.shutdownNow();
+        }
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    public void copyFileDigest() throws Exception {
+        final File dir = getDir();
+        final File source = createFile(dir, "digest.src", 3 * 1024 * 1024 + 7);
+        final File dest = new File(dir, "digest.dst");
+        try {
+            final CopyResult result = Copy.copyFile(source, dest, 64 * 1024,
+                    "SHA-256", true);
+            assertTrue(FileUtils.contentEquals(source, dest));
+            assertEquals(source.length(), result.getBytes());
+
+            final MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(FileUtils.readFileToByteArray(source));
+            assertTrue(Arrays.equals(md.digest(), result.getDigest()));
+
+            final File sidecar = Copy.getSidecar(dest, "SHA-256");
+            assertEquals(new File(dir, "digest.dst.sha256"), sidecar);
+            assertEquals(result.getDigestHex() + "  digest.dst\n",
+                    FileUtils.readFileToString(sidecar, "UTF-8"));
+
+            // CRC32 (overwriting a longer destination)
+            final CopyResult crc = Copy.copyFile(createFile(dir, "digest.crc",
+                    1024), dest, 100, "CRC32", false);
+            assertEquals(1024, dest.length());
+            assertNull(crc.getSidecar());
+            final CRC32 expected = new CRC32();
+            expected.update(FileUtils.readFileToByteArray(dest));
+            assertEquals(expected.getValue(),
+                    Long.parseLong(crc.getDigestHex(), 16));
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void copyFileAtomic() throws Exception {
+        final File dir = getDir();
+        final File source = createFile(dir, "atomic.src", 1024 * 1024 + 3);
+        // an old, longer, destination is replaced
+        final File dest = createFile(dir, "atomic.dst", 2 * 1024 * 1024);
+        try {
+            assertEquals(source.length(), Copy.copyFileAtomic(source, dest, 64 * 1024));
+            assertTrue(FileUtils.contentEquals(source, dest));
+
+            final File nfs = new File(dir, "atomic.nfs");
+            assertEquals(nfs, Copy.copyFileToNFS(source, nfs, 5, true));
+            assertTrue(FileUtils.contentEquals(source, nfs));
+
+            // no temporary files left
+            assertEquals(3, dir.list().length);
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void copyFileCheckpoint() throws Exception {
+        final File dir = getDir();
+        final File source = createFile(dir, "resume.src", 1024 * 1024 + 5);
+        final File dest = new File(dir, "resume.dst");
+        final File store = new File(dir, "resume.checkpoint");
+        try {
+            // an interrupted copy: half of the file is written and recorded
+            final long half = source.length() / 2;
+            final RandomAccessFile raf = new RandomAccessFile(dest, "rw");
+            try {
+                raf.write(FileUtils.readFileToByteArray(source), 0, (int) half);
+            } finally {
+                raf.close();
+            }
+            CopyCheckpoint checkpoint = new CopyCheckpoint(store);
+            checkpoint.setOffset(source, dest, half);
+            checkpoint.save();
+
+            // resumed after a restart
+            checkpoint = new CopyCheckpoint(store);
+            assertEquals(half, checkpoint.getOffset(source, dest));
+            assertEquals(source.length() - half,
+                    Copy.copyFile(source, dest, 64 * 1024, checkpoint));
+            assertTrue(FileUtils.contentEquals(source, dest));
+
+            // completed
+            checkpoint = new CopyCheckpoint(store);
+            assertTrue(checkpoint.isCompleted(source, dest));
+            assertEquals(0, Copy.copyFile(source, dest, 64 * 1024, checkpoint));
+
+            // a changed source is copied again
+            assertTrue(source.setLastModified(source.lastModified() - 10000));
+            assertFalse(checkpoint.isCompleted(source, dest));
+            assertEquals(0, checkpoint.getOffset(source, dest));
+            assertEquals(source.length(),
+                    Copy.copyFile(source, dest, 64 * 1024, checkpoint));
+
+            checkpoint.clear();
+            assertFalse(store.exists());
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void copyFileProgress() throws Exception {
+        final File dir = getDir();
+        final File source = createFile(dir, "progress.src", 1024 * 1024 + 5);
+        final File dest = new File(dir, "progress.dst");
+        final List<Float> percents = new ArrayList<Float>();
+        final List<Long> bytes = new ArrayList<Long>();
+        final TransferProgress<String> progress = new DefaultProgress() {
+            @Override
+            public void onUpdateProgress(float percent) {
+                percents.add(percent);
+            }
+
+            @Override
+            public void onTransferProgress(long transferred, long total,
+                    double bytesPerSecond, long eta) {
+                assertEquals(source.length(), total);
+                bytes.add(transferred);
+            }
+        };
+        try {
+            final TransferMonitor<String> monitor = new TransferMonitor<String>(progress,
+                    256 * 1024);
+            assertEquals(source.length(), Copy.copyFile(source, dest, 64 * 1024, monitor));
+            assertTrue(FileUtils.contentEquals(source, dest));
+            // start, every 256k and the last bytes
+            assertEquals(Arrays.asList(0L, 256 * 1024L, 512 * 1024L, 768 * 1024L,
+                    1024 * 1024L, source.length()), bytes);
+            assertEquals(0f, percents.get(0));
+            assertEquals(100f, percents.get(percents.size() - 1));
+            assertEquals(source.length(), monitor.getBytes());
+            assertTrue(monitor.getBytesPerSecond() > 0);
+            assertEquals(0, monitor.getEta());
+
+            // the percentage is notified once per whole percent
+            percents.clear();
+            bytes.clear();
+            final TransferMonitor<String> fine = new TransferMonitor<String>(progress, 1024);
+            assertEquals(source.length(), Copy.copyFile(source, dest, 1024, fine));
+            assertTrue(bytes.size() > 1024);
+            assertEquals(101, percents.size());
+            for (int i = 1; i < percents.size(); i++) {
+                assertEquals(i, percents.get(i).intValue());
+            }
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void copyFileToNFSAsync() throws Exception {
+        final File dir = getDir();
+        final File source = createFile(dir, "async.src", 64 * 1024);
+        final File dest = new File(dir, "async.dst");
+        final ExecutorService es = Executors.newSingleThreadExecutor();
+        try {
+            assertEquals(dest, Copy.copyFileToNFSAsync(es, source, dest, 5).get());
+            assertTrue(FileUtils.contentEquals(source, dest));
+        } finally {
+            es.shutdownNow();
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package it.geosolutions.tools.io;
+
+import it.geosolutions.tools.io.file.Copy;
+import it.geosolutions.tools.io.file.CopyThrottle;
+import it.geosolutions.tools.io.file.CopyThrottle.Priority;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.test.TestData;
+import org.junit.Test;
+
+/**
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ */
+public class CopyThrottleTest extends Assert {
+
+    @Test
+    public void bandwidth() throws Exception {
+        final File dir = new File(TestData.file(this, "."), "throttle");
+        assertTrue(dir.exists() ? true : dir.mkdirs());
+        final File source = new File(dir, "throttle.src");
+        final File dest = new File(dir, "throttle.dst");
+        try {
+            FileUtils.writeByteArrayToFile(source, new byte[2 * 1024 * 1024]);
+            // 1 second of burst then 1 second of tokens
+            final CopyThrottle throttle = new CopyThrottle(1024 * 1024, CopyThrottle.UNLIMITED);
+            final long start = System.currentTimeMillis();
+            assertEquals(source.length(), Copy.copyFile(source, dest, 64 * 1024, throttle));
+            final long elapsed = System.currentTimeMillis() - start;
+            assertTrue(elapsed >= 800);
+            // without the burst it takes 2 seconds
+            assertTrue(elapsed < 1800);
+            assertTrue(FileUtils.contentEquals(source, dest));
+
+            // limits can be removed at runtime
+            throttle.setBytesPerSecond(CopyThrottle.UNLIMITED);
+            final long unlimited = System.currentTimeMillis();
+            Copy.copyFile(source, dest, 64 * 1024, throttle);
+            assertTrue(System.currentTimeMillis() - unlimited < 800);
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void iops() throws Exception {
+        final CopyThrottle parent = new CopyThrottle(CopyThrottle.UNLIMITED, 100);
+        final CopyThrottle job = new CopyThrottle(parent, Priority.NORMAL,
+                CopyThrottle.UNLIMITED, CopyThrottle.UNLIMITED);
+        final long start = System.currentTimeMillis();
+        // 100 of burst then 50 at 100 ops per second
+        for (int i = 0; i < 150; i++) {
+            job.acquire(1);
+        }
+        final long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed >= 400);
+        // without the burst it takes 1.5 seconds
+        assertTrue(elapsed < 1200);
+    }
+
+    @Test
+    public void priority() throws Exception {
+        final CopyThrottle link = new CopyThrottle(CopyThrottle.UNLIMITED, 50);
+        final CopyThrottle interactive = new CopyThrottle(link, Priority.INTERACTIVE,
+                CopyThrottle.UNLIMITED, CopyThrottle.UNLIMITED);
+        final CopyThrottle background = new CopyThrottle(link, Priority.BACKGROUND,
+                CopyThrottle.UNLIMITED, CopyThrottle.UNLIMITED);
+        // consume the burst
+        for (int i = 0; i < 50; i++) {
+            link.acquire(1);
+        }
+        final AtomicInteger interactiveOps = new AtomicInteger();
+        final AtomicInteger backgroundOps = new AtomicInteger();
+        final Thread[] threads = new Thread[] { worker(interactive, interactiveOps),
+                worker(background, backgroundOps) };
+        for (Thread t : threads) {
+            t.start();
+        }
+        Thread.sleep(1000);
+        for (Thread t : threads) {
+            t.interrupt();
+            t.join();
+        }
+        assertTrue(interactiveOps.get() > backgroundOps.get());
+    }
+
+    private static Thread worker(final CopyThrottle throttle, final AtomicInteger ops) {
+        return new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        throttle.acquire(1);
+                        ops.incrementAndGet();
+                    }
+                } catch (InterruptedIOException e) {
+                    // done
+                }
+            }
+        });
+    }
+}
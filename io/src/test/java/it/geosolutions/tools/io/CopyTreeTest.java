@@ -0,0 +1,279 @@
+package it.geosolutions.tools.io;
+
+import it.geosolutions.tools.io.file.Copy;
+import it.geosolutions.tools.io.file.CopyCheckpoint;
+import it.geosolutions.tools.io.file.CopyTree;
+
+import java.io.File;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.test.TestData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ */
+public class CopyTreeTest extends Assert {
+
+    private ExecutorService es;
+
+    private File sourceDir;
+
+    private File destDir;
+
+    @Before
+    public void setUp() throws Exception {
+        final File dir = new File(TestData.file(this, "."), "copytree");
+        FileUtils.deleteQuietly(dir);
+        sourceDir = new File(dir, "source");
+        destDir = new File(dir, "dest");
+        for (int i = 0; i < 10; i++) {
+            FileUtils.writeStringToFile(new File(sourceDir, "dir_" + (i % 3) + File.separator
+                    + "file_" + i + ".txt"), "content of file " + i);
+        }
+        assertTrue(destDir.mkdirs());
+        es = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        es.shutdownNow();
+        FileUtils.deleteQuietly(sourceDir.getParentFile());
+    }
+
+    private int copy(CopyTree copyTree, CompletionService<File> cs) throws Exception {
+        final int scheduled = copyTree.copy();
+        for (int i = 0; i < scheduled; i++) {
+            assertNotNull(cs.take().get());
+        }
+        return scheduled;
+    }
+
+    @Test
+    public void copy() throws Exception {
+        final CompletionService<File> cs = new ExecutorCompletionService<File>(es);
+        assertEquals(10, copy(new CopyTree(null, cs, sourceDir, destDir), cs));
+        final File dest = new File(destDir, "dir_1" + File.separator + "file_4.txt");
+        assertTrue(FileUtils.contentEquals(new File(sourceDir, "dir_1" + File.separator
+                + "file_4.txt"), dest));
+    }
+
+    @Test
+    public void parallelCopy() throws Exception {
+        assertTrue(new File(sourceDir, "empty").mkdir());
+        final CompletionService<File> cs = new ExecutorCompletionService<File>(es);
+        final CopyTree copyTree = new CopyTree(null, cs, sourceDir, destDir);
+        final int scheduled = copyTree.copy(4);
+        assertEquals(10, scheduled);
+        for (int i = 0; i < scheduled; i++) {
+            assertNotNull(cs.take().get());
+        }
+        for (int i = 0; i < 10; i++) {
+            final String path = "dir_" + (i % 3) + File.separator + "file_" + i + ".txt";
+            assertTrue(FileUtils.contentEquals(new File(sourceDir, path), new File(destDir, path)));
+        }
+        assertTrue(new File(destDir, "empty").isDirectory());
+    }
+
+    @Test
+    public void atomic() throws Exception {
+        final CompletionService<File> cs = new ExecutorCompletionService<File>(es);
+        final CopyTree copyTree = new CopyTree(null, cs, sourceDir, destDir);
+        copyTree.setAtomic(true);
+        copyTree.setDigest("MD5", true);
+        assertEquals(10, copy(copyTree, cs));
+        final File source = new File(sourceDir, "dir_1" + File.separator + "file_4.txt");
+        final File dest = new File(destDir, "dir_1" + File.separator + "file_4.txt");
+        assertTrue(FileUtils.contentEquals(source, dest));
+        assertEquals(source.lastModified(), dest.lastModified());
+        assertTrue(new File(dest.getPath() + ".md5").exists());
+        // 3 files and their sidecars, no temporary files left
+        assertEquals(6, dest.getParentFile().list().length);
+    }
+
+    @Test
+    public void atomicDeleteOrphans() throws Exception {
+        final File dir = new File(destDir, "dir_1");
+        // a copy in progress (f.e. of another process) and an orphan
+        final File temp = Copy.getTempFile(new File(dir, "file_4.txt"));
+        FileUtils.writeStringToFile(temp, "partial");
+        assertTrue(Copy.isTempFile(temp));
+        assertFalse(Copy.isTempFile(new File(dir, "file_4.txt")));
+        final File orphan = new File(dir, "orphan.txt");
+        FileUtils.writeStringToFile(orphan, "orphan");
+
+        final CompletionService<File> cs = new ExecutorCompletionService<File>(es);
+        final CopyTree copyTree = new CopyTree(null, cs, sourceDir, destDir);
+        copyTree.setAtomic(true);
+        copyTree.setDeleteOrphans(true);
+        assertEquals(10, copy(copyTree, cs));
+        // removed once all the copies are ended
+        assertFalse(orphan.exists());
+        assertTrue(temp.exists());
+        assertTrue(new File(dir, "file_4.txt").exists());
+    }
+
+    @Test
+    public void digestIncrementalDeleteOrphans() throws Exception {
+        final CompletionService<File> cs = new ExecutorCompletionService<File>(es);
+        final File dest = new File(destDir, "dir_1" + File.separator + "file_4.txt");
+        final File sidecar = Copy.getSidecar(dest, "SHA-256");
+        final File orphan = new File(destDir, "dir_1" + File.separator + "orphan.txt.sha256");
+        for (int run = 0; run < 2; run++) {
+            final CopyTree copyTree = new CopyTree(null, cs, sourceDir, destDir);
+            copyTree.setIncremental(true, false);
+            copyTree.setDeleteOrphans(true);
+            copyTree.setDigest("SHA-256", true);
+            copy(copyTree, cs);
+            assertTrue(dest.exists());
+            // the sidecars of the skipped (up to date) files are kept
+            assertTrue(sidecar.exists());
+            assertEquals(6, dest.getParentFile().list().length);
+            // the sidecar of a missing source is an orphan
+            assertFalse(orphan.exists());
+            FileUtils.writeStringToFile(orphan, "0000  orphan.txt");
+        }
+    }
+
+    @Test
+    public void checkpoint() throws Exception {
+        final CompletionService<File> cs = new ExecutorCompletionService<File>(es);
+        final File store = new File(sourceDir.getParentFile(), "checkpoint");
+        // an interrupted tree: the copy of file_4 is recorded as completed
+        final File source = new File(sourceDir, "dir_1" + File.separator + "file_4.txt");
+        final File dest = new File(destDir, "dir_1" + File.separator + "file_4.txt");
+        FileUtils.writeStringToFile(dest, "CONTENT OF FILE 4");
+        CopyCheckpoint checkpoint = new CopyCheckpoint(store);
+        checkpoint.setCompleted(source, dest);
+        checkpoint.save();
+
+        // completed files are not copied again
+        checkpoint = new CopyCheckpoint(store);
+        assertEquals(1, checkpoint.size());
+        final CopyTree copyTree = new CopyTree(null, cs, sourceDir, destDir);
+        copyTree.setCheckpoint(checkpoint);
+        copy(copyTree, cs);
+        assertFalse(FileUtils.contentEquals(source, dest));
+        final File other = new File(sourceDir, "dir_1" + File.separator + "file_7.txt");
+        assertTrue(FileUtils.contentEquals(other, new File(destDir, "dir_1"
+                + File.separator + "file_7.txt")));
+
+        // the tree is completed: the checkpoint is cleared
+        assertEquals(0, checkpoint.size());
+        assertFalse(store.exists());
+    }
+
+    @Test
+    public void checkpointCancel() throws Exception {
+        final File store = new File(sourceDir.getParentFile(), "checkpoint");
+        final CopyCheckpoint checkpoint = new CopyCheckpoint(store);
+        checkpoint.setCompleted(new File(sourceDir, "dir_1" + File.separator + "file_4.txt"),
+                new File(destDir, "dir_1" + File.separator + "file_4.txt"));
+        // not yet saved
+        checkpoint.setCompleted(new File(sourceDir, "dir_1" + File.separator + "file_7.txt"),
+                new File(destDir, "dir_1" + File.separator + "file_7.txt"));
+        assertEquals(1, new CopyCheckpoint(store).size());
+
+        final ExecutorService single = Executors.newSingleThreadExecutor();
+        final CountDownLatch latch = new CountDownLatch(1);
+        try {
+            // the executor is busy: the copies are never started
+            single.execute(new Runnable() {
+                public void run() {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            final CompletionService<File> cs = new ExecutorCompletionService<File>(single);
+            final CopyTree copyTree = new CopyTree(null, cs, sourceDir, destDir);
+            copyTree.setCheckpoint(checkpoint);
+            assertEquals(10, copyTree.copy());
+            copyTree.setCancelled();
+            // the canceled tree is ended: the checkpoint is saved to resume it
+            assertEquals(2, new CopyCheckpoint(store).size());
+        } finally {
+            latch.countDown();
+            single.shutdownNow();
+        }
+    }
+
+    @Test
+    public void incremental() throws Exception {
+        final CompletionService<File> cs = new ExecutorCompletionService<File>(es);
+        copy(new CopyTree(null, cs, sourceDir, destDir), cs);
+
+        // same size and time but different content
+        final File source = new File(sourceDir, "dir_1" + File.separator + "file_4.txt");
+        final File dest = new File(destDir, "dir_1" + File.separator + "file_4.txt");
+        FileUtils.writeStringToFile(dest, "CONTENT OF FILE 4");
+        assertTrue(dest.setLastModified(source.lastModified()));
+        // an orphan
+        final File orphan = new File(destDir, "dir_orphan" + File.separator + "orphan.txt");
+        FileUtils.writeStringToFile(orphan, "orphan");
+
+        CopyTree copyTree = new CopyTree(null, cs, sourceDir, destDir);
+        copyTree.setIncremental(true, false);
+        copy(copyTree, cs);
+        assertFalse(FileUtils.contentEquals(source, dest));
+        assertTrue(orphan.exists());
+
+        copyTree = new CopyTree(null, cs, sourceDir, destDir);
+        copyTree.setIncremental(true, true);
+        copyTree.setDeleteOrphans(true);
+        copy(copyTree, cs);
+        assertTrue(FileUtils.contentEquals(source, dest));
+        assertFalse(orphan.getParentFile().exists());
+    }
+
+    @Test
+    public void largestFirst() throws Exception {
+        final File big = new File(sourceDir, "dir_2" + File.separator + "big.dat");
+        FileUtils.writeByteArrayToFile(big, new byte[100 * 1024]);
+        final ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            final CompletionService<File> cs = new ExecutorCompletionService<File>(single);
+            final CopyTree copyTree = new CopyTree(null, cs, sourceDir, destDir);
+            copyTree.setScheduling(CopyTree.Scheduling.LARGEST_FIRST);
+            assertEquals(11, copyTree.copy(4));
+            // the biggest file is copied first
+            assertEquals(new File(destDir, "dir_2" + File.separator + "big.dat"),
+                    cs.take().get());
+            for (int i = 1; i < 11; i++) {
+                assertNotNull(cs.take().get());
+            }
+        } finally {
+            single.shutdownNow();
+        }
+        assertTrue(FileUtils.contentEquals(big, new File(destDir, "dir_2" + File.separator
+                + "big.dat")));
+    }
+
+    @Test
+    public void batching() throws Exception {
+        final File big = new File(sourceDir, "dir_2" + File.separator + "big.dat");
+        FileUtils.writeByteArrayToFile(big, new byte[100 * 1024]);
+        final CompletionService<File> cs = new ExecutorCompletionService<File>(es);
+        final CopyTree copyTree = new CopyTree(null, cs, sourceDir, destDir);
+        copyTree.setBatching(1024, 4);
+        // the big file and 10 small files in 3 batches
+        assertEquals(4, copy(copyTree, cs));
+        for (int i = 0; i < 10; i++) {
+            final String path = "dir_" + (i % 3) + File.separator + "file_" + i + ".txt";
+            assertTrue(FileUtils.contentEquals(new File(sourceDir, path), new File(destDir, path)));
+        }
+        assertTrue(new File(destDir, "dir_2" + File.separator + "big.dat").exists());
+    }
+}
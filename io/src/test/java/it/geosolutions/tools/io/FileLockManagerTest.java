@@ -0,0 +1,72 @@
+package it.geosolutions.tools.io;
+
+import it.geosolutions.tools.io.file.FileLockManager;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.test.TestData;
+import org.junit.Test;
+
+/**
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ */
+public class FileLockManagerTest extends Assert {
+
+    @Test
+    public void handoff() throws Exception {
+        final File dir = new File(TestData.file(this, "."), "test");
+        assertTrue(dir.exists() ? true : dir.mkdir());
+        final File file = new File(dir, "lock.txt");
+        FileUtils.writeStringToFile(file, "locked");
+
+        final FileLockManager manager = new FileLockManager(4);
+        final ExecutorService es = Executors.newSingleThreadExecutor();
+        try {
+            final FileLockManager.Lease lease = manager.acquire(file, 1, TimeUnit.SECONDS);
+            assertNotNull(lease);
+            assertNotNull(lease.getFileLock());
+
+            // held by another thread
+            assertNull(es.submit(new Callable<FileLockManager.Lease>() {
+                public FileLockManager.Lease call() throws Exception {
+                    return manager.tryAcquire(file);
+                }
+            }).get());
+
+            final Future<Long> waiter = es.submit(new Callable<Long>() {
+                public Long call() throws Exception {
+                    final FileLockManager.Lease lease = manager.acquire(file, 10,
+                            TimeUnit.SECONDS);
+                    assertNotNull(lease);
+                    final long time = System.nanoTime();
+                    lease.close();
+                    return time;
+                }
+            });
+            Thread.sleep(100);
+            final long released = System.nanoTime();
+            lease.close();
+            lease.close();
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(waiter.get() - released) < 1000);
+
+            // directories hold only the in JVM lock
+            final FileLockManager.Lease dirLease = manager.tryAcquire(dir);
+            assertNotNull(dirLease);
+            assertNull(dirLease.getFileLock());
+            dirLease.close();
+        } finally {
+            es.shutdownNow();
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+}
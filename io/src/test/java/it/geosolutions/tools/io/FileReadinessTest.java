@@ -0,0 +1,47 @@
+package it.geosolutions.tools.io;
+
+import it.geosolutions.tools.io.file.FileReadiness;
+
+import java.io.File;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.test.TestData;
+import org.junit.Test;
+
+/**
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ */
+public class FileReadinessTest extends Assert {
+
+    @Test
+    public void await() throws Exception {
+        final File dir = new File(TestData.file(this, "."), "readiness");
+        FileUtils.deleteQuietly(dir);
+        assertTrue(dir.mkdirs());
+        final FileReadiness readiness = new FileReadiness(100);
+        try {
+            final File file = new File(dir, "file.txt");
+            final Future<File> ready = readiness.await(file, 10, TimeUnit.SECONDS);
+            final Future<File> missing = readiness.await(new File(dir, "missing.txt"), 200,
+                    TimeUnit.MILLISECONDS);
+            assertFalse(ready.isDone());
+
+            FileUtils.writeStringToFile(file, "ready");
+            assertEquals(file, ready.get(5, TimeUnit.SECONDS));
+            // timeout
+            assertNull(missing.get(5, TimeUnit.SECONDS));
+
+            // already there
+            assertTrue(readiness.await(file, 0, TimeUnit.SECONDS).isDone());
+        } finally {
+            readiness.shutdown();
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+package it.geosolutions.tools.io;
+
+import it.geosolutions.tools.io.file.FileRemover;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.test.TestData;
+import org.junit.Test;
+
+/**
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ */
+@SuppressWarnings("deprecation")
+public class FileRemoverTest extends Assert {
+
+    @Test
+    public void remove() throws Exception {
+        final File dir = new File(TestData.file(this, "."), "remover");
+        final File file = new File(dir, "file.txt");
+        FileUtils.writeStringToFile(file, "to remove");
+
+        final FileRemover remover = new FileRemover(1, Thread.NORM_PRIORITY, 2);
+        try {
+            remover.start();
+            // not empty: the first attempt fails, retried after 1 second
+            remover.addFile(dir);
+            remover.addFile(dir);
+            remover.addFile(file);
+            for (int i = 0; i < 100 && FileRemover.getPendingCount() > 0; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(0, FileRemover.getPendingCount());
+            assertFalse(file.exists());
+            assertFalse(dir.exists());
+        } finally {
+            remover.shutdown();
+            FileRemover.reset();
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void journal() throws Exception {
+        final File dir = new File(TestData.file(this, "."), "remover_journal");
+        final File file = new File(dir, "file.txt");
+        final File journal = new File(dir, "journal.bin");
+        FileUtils.writeStringToFile(file, "to remove");
+        final int recordLength = 1 + 4 + file.getAbsolutePath().getBytes("UTF-8").length + 4;
+        final FileRemover remover = new FileRemover(1, Thread.NORM_PRIORITY, 2);
+        try {
+            assertEquals(0, FileRemover.openJournal(journal));
+            remover.addFile(file);
+            FileRemover.closeJournal();
+            assertEquals(recordLength, journal.length());
+
+            // torn tail
+            final FileOutputStream out = new FileOutputStream(journal, true);
+            out.write(new byte[] { 'A', 0, 0 });
+            out.close();
+            FileRemover.openJournal(journal);
+            assertEquals(recordLength, journal.length());
+
+            remover.start();
+            for (int i = 0; i < 100 && file.exists(); i++) {
+                Thread.sleep(100);
+            }
+            assertFalse(file.exists());
+            remover.shutdown();
+            FileRemover.closeJournal();
+            // added and removed
+            assertEquals(2 * recordLength, journal.length());
+
+            // compacted on open
+            assertEquals(0, FileRemover.openJournal(journal));
+            assertEquals(0, journal.length());
+        } finally {
+            remover.shutdown();
+            FileRemover.reset();
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void journalReAdd() throws Exception {
+        final File dir = new File(TestData.file(this, "."), "remover_readd");
+        final File file = new File(dir, "file.txt");
+        final File journal = new File(dir, "journal.bin");
+        FileUtils.forceMkdir(dir);
+        try {
+            for (int round = 0; round < 20; round++) {
+                final FileRemover remover = new FileRemover(1, Thread.NORM_PRIORITY, 2);
+                final AtomicBoolean stop = new AtomicBoolean();
+                // adds the file again while the remover disposes it
+                final Thread producer = new Thread() {
+                    public void run() {
+                        try {
+                            while (!stop.get()) {
+                                if (!file.exists())
+                                    file.createNewFile();
+                                remover.addFile(file);
+                            }
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                };
+                try {
+                    FileRemover.openJournal(journal);
+                    remover.start();
+                    producer.start();
+                    Thread.sleep(50);
+                    remover.shutdown();
+                    stop.set(true);
+                    producer.join();
+                    final int pending = FileRemover.getPendingCount();
+                    if (!file.exists())
+                        file.createNewFile();
+                    FileRemover.reset();
+                    // the journal lists the file only if it is still pending
+                    assertEquals(pending, FileRemover.openJournal(journal));
+                } finally {
+                    stop.set(true);
+                    producer.join();
+                    remover.shutdown();
+                    FileRemover.reset();
+                }
+            }
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+}
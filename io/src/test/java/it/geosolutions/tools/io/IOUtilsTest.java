@@ -5,11 +5,20 @@ package it.geosolutions.tools.io;
 
 import it.geosolutions.tools.io.file.IOUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 import junit.framework.Assert;
 
+import org.apache.commons.io.FileUtils;
 import org.geotools.test.TestData;
+import org.junit.Assume;
 import org.junit.Test;
 
 
@@ -27,4 +36,83 @@ public class IOUtilsTest extends Assert{
         assertTrue(IOUtils.acquireLock(this, dir));
     }
 
+    @Test
+    public void copyFileChannel() throws Exception{
+        final File dir= new File(TestData.file(this, "."),"test");
+        Assert.assertTrue(dir.exists()?true:dir.mkdir());
+        final File source=new File(dir,"copyFileChannel.src");
+        final File dest=new File(dir,"copyFileChannel.dst");
+        RandomAccessFile s=new RandomAccessFile(source, "rw");
+        s.setLength(3*1024*1024+17);
+        s.seek(1024*1024+1);
+        s.write(42);
+        s.close();
+        // a bigger destination must be truncated
+        RandomAccessFile d=new RandomAccessFile(dest, "rw");
+        d.setLength(5*1024*1024);
+        d.close();
+        
+        s=new RandomAccessFile(source, "r");
+        d=new RandomAccessFile(dest, "rw");
+        try {
+            final FileChannel sc=s.getChannel();
+            final FileChannel dc=d.getChannel();
+            assertEquals(source.length(), IOUtils.copyFileChannel(1024*1024, sc, dc, true));
+        } finally {
+            s.close();
+            d.close();
+        }
+        assertEquals(source.length(), dest.length());
+        assertTrue(FileUtils.contentEquals(source, dest));
+        FileUtils.deleteQuietly(source);
+        FileUtils.deleteQuietly(dest);
+    }
+
+    @Test
+    public void pumpStream() throws Exception{
+        final byte[] data=new byte[100*1024+3];
+        for (int i=0; i<data.length; i++){
+            data[i]=(byte)i;
+        }
+        // buffered copy
+        final ByteArrayOutputStream out=new ByteArrayOutputStream();
+        assertEquals(data.length, IOUtils.pumpStream(new ByteArrayInputStream(data), out, 4096));
+        assertTrue(Arrays.equals(data, out.toByteArray()));
+        
+        // channel copy starting from the current stream position
+        final File dir= new File(TestData.file(this, "."),"test");
+        Assert.assertTrue(dir.exists()?true:dir.mkdir());
+        final File source=new File(dir,"pumpStream.src");
+        final File dest=new File(dir,"pumpStream.dst");
+        FileUtils.writeByteArrayToFile(source, data);
+        final FileInputStream in=new FileInputStream(source);
+        assertEquals(3, in.skip(3));
+        IOUtils.copyStream(in, new FileOutputStream(dest), 4096, true, true);
+        assertEquals(data.length-3, dest.length());
+        FileUtils.deleteQuietly(source);
+        FileUtils.deleteQuietly(dest);
+    }
+
+    @Test
+    public void pumpStreamZeroSizeFile() throws Exception{
+        // a readable file reporting a zero size (linux only)
+        final File source=new File("/proc/self/status");
+        Assume.assumeTrue(source.canRead());
+        final File dir= new File(TestData.file(this, "."),"test");
+        Assert.assertTrue(dir.exists()?true:dir.mkdir());
+        final File dest=new File(dir,"pumpStreamZeroSize.dst");
+        final FileInputStream in=new FileInputStream(source);
+        final FileOutputStream out=new FileOutputStream(dest);
+        try {
+            assertEquals(0, in.getChannel().size());
+            final long count=IOUtils.pumpStream(in, out, 4096);
+            assertTrue(count>0);
+            assertEquals(count, dest.length());
+        } finally {
+            in.close();
+            out.close();
+        }
+        FileUtils.deleteQuietly(dest);
+    }
+
 }
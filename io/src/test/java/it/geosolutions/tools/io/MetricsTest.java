@@ -0,0 +1,135 @@
+package it.geosolutions.tools.io;
+
+import it.geosolutions.tools.io.file.Copy;
+import it.geosolutions.tools.io.file.CopyTree;
+import it.geosolutions.tools.io.metrics.CopyStatistics;
+import it.geosolutions.tools.io.metrics.Histogram;
+import it.geosolutions.tools.io.metrics.Metrics;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.test.TestData;
+import org.junit.Test;
+
+/**
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ */
+public class MetricsTest extends Assert {
+
+    @Test
+    public void histogram() throws Exception {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        // within the bucket precision
+        final long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 500 && p50 <= 500 + 500 / Histogram.SUB_BUCKETS);
+        final long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990 && p99 <= 1000);
+        assertEquals(1000, histogram.getPercentile(100));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    public void statistics() throws Exception {
+        final File dir = new File(TestData.file(this, "."), "metrics");
+        assertTrue(dir.exists() ? true : dir.mkdirs());
+        final File source = new File(dir, "metrics.src");
+        FileUtils.writeByteArrayToFile(source, new byte[1000]);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = CopyStatistics.getObjectName(Metrics.MBEAN_NAME);
+        try {
+            assertFalse(Metrics.isEnabled());
+            final CopyStatistics statistics = Metrics.enable();
+            assertTrue(server.isRegistered(name));
+
+            Copy.copyFile(source, new File(dir, "metrics.1"));
+            Copy.copyFileAtomic(source, new File(dir, "metrics.2"), 100);
+            try {
+                // a directory cannot be written
+                Copy.copyFile(source, dir, 100, false);
+                fail("copy to a directory");
+            } catch (Exception e) {
+                // expected
+            }
+            assertEquals(2, statistics.getCopiedFiles());
+            assertEquals(2000, statistics.getCopiedBytes());
+            assertEquals(1, statistics.getFailedCopies());
+            assertEquals(0, statistics.getActiveCopies());
+            assertEquals(1 / 3d, statistics.getFailureRate(), 0.001);
+            assertEquals(3, statistics.getLatency().getCount());
+            assertEquals(Long.valueOf(2000), server.getAttribute(name, "CopiedBytes"));
+
+            Metrics.disable();
+            assertFalse(server.isRegistered(name));
+            Copy.copyFile(source, new File(dir, "metrics.3"));
+            assertEquals(2, statistics.getCopiedFiles());
+        } finally {
+            Metrics.disable();
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void queueDepth() throws Exception {
+        final File dir = new File(TestData.file(this, "."), "metrics_queue");
+        final File sourceDir = new File(dir, "source");
+        for (int i = 0; i < 3; i++) {
+            FileUtils.writeStringToFile(new File(sourceDir, "file_" + i + ".txt"), "file " + i);
+        }
+        final File destDir = new File(dir, "dest");
+        final ExecutorService single = Executors.newSingleThreadExecutor();
+        final CountDownLatch latch = new CountDownLatch(1);
+        try {
+            final CopyStatistics statistics = Metrics.enable();
+            // the executor is busy: the copies are never started
+            single.execute(new Runnable() {
+                public void run() {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            final FutureTask<File> future = Copy.asynchFileCopyToNFS(single, new File(sourceDir,
+                    "file_0.txt"), new File(destDir, "file_0.txt"), -1);
+            final CompletionService<File> cs = new ExecutorCompletionService<File>(single);
+            final CopyTree copyTree = new CopyTree(null, cs, sourceDir, destDir);
+            assertEquals(3, copyTree.copy());
+            assertEquals(4, statistics.getQueueDepth());
+
+            // canceled before starting
+            assertTrue(future.cancel(true));
+            copyTree.setCancelled();
+            assertEquals(0, statistics.getQueueDepth());
+        } finally {
+            latch.countDown();
+            single.shutdownNow();
+            Metrics.disable();
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+}
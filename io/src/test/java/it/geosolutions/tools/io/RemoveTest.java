@@ -0,0 +1,95 @@
+package it.geosolutions.tools.io;
+
+import it.geosolutions.tools.io.file.DeleteReport;
+import it.geosolutions.tools.io.file.Remove;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.test.TestData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ */
+public class RemoveTest extends Assert {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File(TestData.file(this, "."), "remove");
+        FileUtils.deleteQuietly(dir);
+        for (int i = 0; i < 20; i++) {
+            FileUtils.writeStringToFile(new File(dir, "dir_" + (i % 4) + File.separator + "sub_"
+                    + (i % 2) + File.separator + "file_" + i + ".txt"), "content of file " + i);
+        }
+        assertTrue(new File(dir, "empty").mkdir());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    public void deleteTree() throws Exception {
+        DeleteReport report = Remove.deleteTree(dir, false, 4);
+        assertTrue(report.isSuccessful());
+        // 20 files, 4 dirs, 4 sub dirs, 1 empty dir
+        assertEquals(29, report.getDeleted());
+        assertTrue(dir.isDirectory());
+        assertEquals(0, dir.list().length);
+
+        report = Remove.deleteTree(dir, true, 4);
+        assertTrue(report.isSuccessful());
+        assertEquals(1, report.getDeleted());
+        assertFalse(dir.exists());
+    }
+
+    @Test
+    public void deleteTreeAsync() throws Exception {
+        final ExecutorService es = Executors.newSingleThreadExecutor();
+        try {
+            final DeleteReport report = Remove.deleteTreeAsync(dir, es, 2).get();
+            assertFalse(dir.exists());
+            assertTrue(report.isSuccessful());
+            assertEquals(30, report.getDeleted());
+            assertFalse(report.getRoot().exists());
+        } finally {
+            es.shutdownNow();
+        }
+    }
+
+    @Test
+    public void deleteTreeLink() throws Exception {
+        final File link = new File(dir.getParentFile(), "remove_link");
+        FileUtils.deleteQuietly(link);
+        try {
+            Files.createSymbolicLink(link.toPath(), dir.getAbsoluteFile().toPath());
+        } catch (UnsupportedOperationException e) {
+            // links not supported
+            return;
+        }
+        try {
+            try {
+                Remove.deleteTree(link, false, 2);
+                fail("a link is not followed");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            assertEquals(5, dir.list().length);
+        } finally {
+            Files.deleteIfExists(link.toPath());
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+package it.geosolutions.tools.io;
+
+import it.geosolutions.tools.io.file.DeleteReport;
+import it.geosolutions.tools.io.file.FileRemover;
+import it.geosolutions.tools.io.file.RetentionIndex;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Calendar;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.test.TestData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
+ *
+ */
+public class RetentionIndexTest extends Assert {
+
+    private File root;
+
+    @Before
+    public void setUp() throws Exception {
+        root = new File(TestData.file(this, "."), "retention");
+        FileUtils.deleteQuietly(root);
+        for (String name : new String[] { "2011_12_30", "2011_12_31_input", "2012_01_01",
+                "2012_01_02_input" }) {
+            FileUtils.writeStringToFile(new File(root, name + File.separator + "file.txt"), name);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(root);
+    }
+
+    private static long time(int year, int month, int day) {
+        final Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month, day, 12, 0);
+        return cal.getTimeInMillis();
+    }
+
+    @Test
+    public void expire() throws Exception {
+        final RetentionIndex index = new RetentionIndex(root);
+        assertEquals(4, index.rebuild());
+        final File today = index.createTodayDirectory("input");
+        assertNotNull(today);
+        assertEquals(5, index.size());
+
+        // across the year
+        List<File> expired = index.expire(time(2012, Calendar.JANUARY, 2), 2);
+        assertEquals(1, expired.size());
+        assertEquals("2011_12_30", expired.get(0).getName());
+
+        expired = index.expire(time(2012, Calendar.JANUARY, 2), 2);
+        assertEquals(0, expired.size());
+
+        final List<DeleteReport> reports = index.sweep(time(2012, Calendar.JANUARY, 3), 1, 2);
+        assertEquals(2, reports.size());
+        assertTrue(reports.get(0).isSuccessful());
+        assertFalse(new File(root, "2011_12_31_input").exists());
+        assertFalse(new File(root, "2012_01_01").exists());
+        assertTrue(new File(root, "2012_01_02_input").exists());
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void linkedDirectory() throws Exception {
+        final File target = new File(TestData.file(this, "."), "retention-target");
+        FileUtils.writeStringToFile(new File(target, "file.txt"), "target");
+        try {
+            final File link = new File(root, "2011_12_29_link");
+            Files.createSymbolicLink(link.toPath(), target.toPath());
+
+            // links are not indexed
+            final RetentionIndex index = new RetentionIndex(root);
+            assertEquals(4, index.rebuild());
+            index.register(link);
+            assertEquals(4, index.size());
+
+            // an indexed directory replaced by a link
+            final File replaced = new File(root, "2011_12_30");
+            FileUtils.deleteDirectory(replaced);
+            Files.createSymbolicLink(replaced.toPath(), target.toPath());
+
+            final List<DeleteReport> reports = index.sweep(time(2012, Calendar.JANUARY, 3), 1, 2);
+            assertEquals(3, reports.size());
+            assertFalse(reports.get(0).isSuccessful());
+            assertEquals(replaced, reports.get(0).getRoot());
+            assertTrue(reports.get(1).isSuccessful());
+            assertTrue(reports.get(2).isSuccessful());
+            assertFalse(new File(root, "2011_12_31_input").exists());
+            assertFalse(new File(root, "2012_01_01").exists());
+            assertTrue(new File(target, "file.txt").exists());
+            assertEquals(1, index.size());
+        } finally {
+            FileUtils.deleteQuietly(target);
+        }
+    }
+
+    @Test
+    public void collectOlder() throws Exception {
+        final long now = System.currentTimeMillis();
+        final Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(now);
+        cal.add(Calendar.DAY_OF_YEAR, -40);
+        final File old = new File(root, "2011_12_30");
+        assertTrue(old.setLastModified(cal.getTimeInMillis()));
+        final List<File> older = FileRemover.collectOlder(now, 30, root);
+        assertNotNull(older);
+        assertEquals(1, older.size());
+        assertEquals(old.getName(), older.get(0).getName());
+        // parallel scan
+        final List<File> parallel = FileRemover.collectOlder(now, 30, root, 4);
+        assertNotNull(parallel);
+        assertEquals(older, parallel);
+    }
+
+}